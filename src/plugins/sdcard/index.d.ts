@@ -14,7 +14,56 @@ interface DirListItem {
   mime: string;
   isDirectory: Boolean;
   isFile: Boolean;
+  isVirtual: Boolean;
+  canWrite: Boolean;
+  length: number;
+  lastModified: number;
+  flags: number;
   uri: string;
+  url: string;
+}
+
+interface ListOptions {
+  /**
+   * Sort entries natively, unsorted (provider order) if omitted
+   */
+  sortBy?: 'name' | 'size' | 'modified';
+  reverse?: boolean;
+  /**
+   * List directories before files
+   */
+  dirsFirst?: boolean;
+  /**
+   * Include dot files, defaults to true
+   */
+  showHidden?: boolean;
+  /**
+   * Glob the entry name has to match, e.g. "*.js"
+   */
+  pattern?: string;
+}
+
+interface WalkEntry extends DirListItem {
+  /**
+   * Path relative to the walked directory
+   */
+  path: string;
+  depth: number;
+}
+
+interface WalkOptions {
+  /**
+   * Globs matched against entry names and relative paths, e.g. "node_modules", ".git"
+   */
+  ignore?: Array<string>;
+  /**
+   * Maximum depth to descend, 1 lists only the direct children
+   */
+  maxDepth?: number;
+  /**
+   * Number of entries per batch, defaults to 500
+   */
+  batchSize?: number;
 }
 
 interface Stats {
@@ -39,6 +88,107 @@ interface DocumentFile {
   uri: string;
 }
 
+interface WriteOptions {
+  /**
+   * Charset used to encode text chunks, defaults to UTF-8
+   */
+  charset?: string;
+  /**
+   * Write to a temporary file and replace the target on commit. Only
+   * supported for file:// urls, other urls are written in place.
+   */
+  atomic?: boolean;
+}
+
+interface TransferProgress {
+  copiedBytes: number;
+  totalBytes: number;
+  copiedFiles: number;
+  totalFiles: number;
+}
+
+interface TransferHandle {
+  /**
+   * Stops the transfer, partially copied files are removed
+   */
+  cancel(): void;
+}
+
+interface BenchmarkResult {
+  kind: 'list' | 'read';
+  iterations: number;
+  entries?: number;
+  bytes?: number;
+  saf: number;
+  /**
+   * null when the document can't be accessed directly
+   */
+  direct: number | null;
+}
+
+interface FileChange {
+  /**
+   * Absolute path of the changed file
+   */
+  path: string;
+  kind: 'create' | 'modify' | 'delete';
+}
+
+interface WatchOptions {
+  /**
+   * Watch all subdirectories of a directory as well
+   */
+  recursive?: boolean;
+  /**
+   * Milliseconds to collect events before reporting them, defaults to 100
+   */
+  debounce?: number;
+  /**
+   * Globs matched against names and paths relative to the watched directory
+   */
+  ignore?: Array<string>;
+}
+
+interface SearchOptions {
+  /**
+   * Treat the query as a regular expression
+   */
+  regex?: boolean;
+  caseSensitive?: boolean;
+  wholeWord?: boolean;
+  /**
+   * Only search files whose name or relative path matches one of these globs
+   */
+  include?: Array<string>;
+  /**
+   * Skip files and directories whose name or relative path matches
+   */
+  exclude?: Array<string>;
+  /**
+   * Files larger than this are skipped, no limit by default. Files are
+   * streamed, so large files don't need memory in proportion to their size
+   */
+  maxFileSize?: number;
+  /**
+   * Stop after this many matches, defaults to 10000
+   */
+  maxResults?: number;
+  batchSize?: number;
+}
+
+interface SearchMatch {
+  url: string;
+  line: number;
+  column: number;
+  endLine: number;
+  endColumn: number;
+  match: string;
+  /**
+   * Text of the line around the match
+   */
+  preview: string;
+}
+
 interface SDcard {
   /**
    * Copy file/directory to given destination
@@ -46,13 +196,16 @@ interface SDcard {
    * @param dest Destination url
    * @param onSuccess Callback function on success returns url of copied file/dir
    * @param onFail Callback function on error returns error object
+   * @param onProgress Optional callback receiving progress, makes the
+   * transfer cancellable
    */
   copy(
     src: string,
     dest: string,
     onSuccess: (url: string) => void,
     onFail: (err: any) => void,
-  ): void;
+    onProgress?: (progress: TransferProgress) => void,
+  ): TransferHandle | void;
   /**
    * Creates new directory at given source url.
    * @param src Source url
@@ -147,29 +300,67 @@ interface SDcard {
     onFail: (err: any) => void,
   ): void;
   /**
-   * Gets list of files/directory in the given directory
+   * Gets list of files/directory in the given directory, including size and
+   * modification time, in a single provider query
    * @param src Directory url
    * @param onSuccess Callback function on success returns list of files/directory
    * @param onFail Callback function on error returns error object
+   * @param options Native sorting and filtering
    */
   listDir(
     src: string,
     onSuccess: (list: Array<DirListItem>) => void,
     onFail: (err: any) => void,
+    options?: ListOptions,
   ): void;
+  /**
+   * Recursively lists the given directory, querying subtrees in parallel
+   * @param src Directory url
+   * @param options Ignore globs, max depth and batch size
+   * @param onBatch Callback function called with each batch of entries
+   * @param onEnd Callback function called once the walk is complete
+   * @param onFail Callback function on error returns error object
+   */
+  walk(
+    src: string,
+    options: WalkOptions,
+    onBatch: (entries: Array<WalkEntry>) => void,
+    onEnd: (res: { count: number }) => void,
+    onFail: (err: any) => void,
+  ): void;
+  /**
+   * Searches the content of all files below a directory natively
+   * @param src Directory url, SAF tree or file://
+   * @param query Text or regular expression to search for
+   * @param options Search options
+   * @param onBatch Callback function receiving matches in batches
+   * @param onEnd Callback function called once the search is complete
+   * @param onFail Callback function on error returns error object
+   */
+  search(
+    src: string,
+    query: string,
+    options: SearchOptions,
+    onBatch: (matches: Array<SearchMatch>) => void,
+    onEnd: (result: { files: number; matches: number; truncated: boolean; skipped: number }) => void,
+    onFail: (err: any) => void,
+  ): { cancel: () => void };
   /**
    * Move file/directory to given destination
    * @param src Source url
    * @param dest Destination url
    * @param onSuccess Callback function on success returns url of moved file/dir
    * @param onFail Callback function on error returns error object
+   * @param onProgress Optional callback receiving progress, makes the
+   * transfer cancellable
    */
   move(
     src: string,
     dest: string,
     onSuccess: (url: string) => void,
     onFail: (err: any) => void,
-  ): void;
+    onProgress?: (progress: TransferProgress) => void,
+  ): TransferHandle | void;
   /**
    * Opens file provider to select file
    * @param onSuccess Callback function on success returns url of selected file
@@ -205,6 +396,36 @@ interface SDcard {
     onSuccess: (url: string) => void,
     onFail: (err: any) => void,
   ): void;
+  /**
+   * Reads up to length bytes starting at offset.
+   * @param src file url
+   * @param offset byte offset to start reading at
+   * @param length maximum number of bytes to read
+   * @param onSuccess Callback function on success returns the bytes read, shorter than length at end of file
+   * @param onFail Callback function on error returns error object
+   */
+  readRange(
+    src: string,
+    offset: number,
+    length: number,
+    onSuccess: (data: ArrayBuffer) => void,
+    onFail: (err: any) => void,
+  ): void;
+  /**
+   * Reads the file in chunks, delivering each chunk as soon as it is read.
+   * @param src file url
+   * @param chunkSize size of each chunk in bytes, from 1 to 8 MiB
+   * @param onChunk Callback function called for every chunk
+   * @param onEnd Callback function called once the whole file is read
+   * @param onFail Callback function on error returns error object
+   */
+  readStream(
+    src: string,
+    chunkSize: number,
+    onChunk: (data: ArrayBuffer) => void,
+    onEnd: (res: { length: number }) => void,
+    onFail: (err: any) => void,
+  ): void;
   /**
    * Writes new content to the given file.
    * @param src file url
@@ -233,6 +454,57 @@ interface SDcard {
     onSuccess: (res: 'OK') => void,
     onFail: (err: any) => void,
   ): void;
+  /**
+   * Opens a write session that truncates the file and accepts content in chunks.
+   * A session left idle for 5 minutes is aborted.
+   * @param src file url
+   * @param options charset and atomic mode
+   * @param onSuccess Callback function on success returns the session id
+   * @param onFail Callback function on error returns error object
+   */
+  openWrite(
+    src: string,
+    options: WriteOptions,
+    onSuccess: (id: string) => void,
+    onFail: (err: any) => void,
+  ): void;
+  /**
+   * Appends a chunk to an open write session. Appends, commitWrite and
+   * abortWrite of a session run in the order they are called, so there is
+   * no need to wait for one append before sending the next.
+   * @param id session id returned by openWrite
+   * @param content text or binary chunk
+   * @param onSuccess Callback function on success returns "OK"
+   * @param onFail Callback function on error returns error object, the session is closed
+   */
+  appendWrite(
+    id: string,
+    content: string | ArrayBuffer,
+    onSuccess: (res: 'OK') => void,
+    onFail: (err: any) => void,
+  ): void;
+  /**
+   * Flushes and closes a write session.
+   * @param id session id returned by openWrite
+   * @param onSuccess Callback function on success returns "OK"
+   * @param onFail Callback function on error returns error object
+   */
+  commitWrite(
+    id: string,
+    onSuccess: (res: 'OK') => void,
+    onFail: (err: any) => void,
+  ): void;
+  /**
+   * Closes a write session, discarding the temporary file in atomic mode.
+   * @param id session id returned by openWrite
+   * @param onSuccess Callback function on success returns "OK"
+   * @param onFail Callback function on error returns error object
+   */
+  abortWrite(
+    id: string,
+    onSuccess: (res: 'OK') => void,
+    onFail: (err: any) => void,
+  ): void;
   /**
    * Gets stats of given file
    * @param src file/directory url
@@ -245,13 +517,53 @@ interface SDcard {
     onFail: (err: any) => void,
   ): void;
   /**
-   * Listens for file changes
-   * @param src File url
-   * @param listener Callback function on file change returns file stats
+   * Gets stats of several files in one call
+   * @param srcs file/directory urls
+   * @param onSuccess Callback function on success returns stats in the same order
+   * @param onFail Callback function on error returns error object
+   */
+  statMany(
+    srcs: Array<string>,
+    onSuccess: (stats: Array<Stats>) => void,
+    onFail: (err: any) => void,
+  ): void;
+  /**
+   * Checks whether several files exist in one call
+   * @param srcs file/directory urls
+   * @param onSuccess Callback function on success returns a boolean per url
+   * @param onFail Callback function on error returns error object
+   */
+  existsMany(
+    srcs: Array<string>,
+    onSuccess: (exists: Array<boolean>) => void,
+    onFail: (err: any) => void,
+  ): void;
+  /**
+   * Compares listing (directory) or reading (file) through SAF against the
+   * direct filesystem path used when all files access is granted
+   * @param src file/directory url
+   * @param iterations Number of runs to average, defaults to 5
+   * @param onSuccess Callback function on success returns average times in ms
+   * @param onFail Callback function on error returns error object
+   */
+  benchmark(
+    src: string,
+    iterations: number,
+    onSuccess: (result: BenchmarkResult) => void,
+    onFail: (err: any) => void,
+  ): void;
+  /**
+   * Listens for file or directory changes, batched per debounce window
+   * @param src File/directory url
+   * @param listener Callback function receiving the changes
+   * @param onFail Callback function on error returns error object
+   * @param options Recursive watching, debounce and ignore globs
    */
   watchFile(
     src: string,
-    listener: () => void,
+    listener: (changes: Array<FileChange>) => void,
+    onFail?: (err: any) => void,
+    options?: WatchOptions,
   ): {
     unwatch: () => void;
   };
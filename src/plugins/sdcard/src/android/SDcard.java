@@ -4,32 +4,73 @@ import android.app.Activity;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
 import android.os.FileObserver;
+import android.os.ParcelFileDescriptor;
 import android.os.storage.StorageManager;
 import android.os.storage.StorageVolume;
 import android.provider.DocumentsContract;
 import android.provider.DocumentsContract.Document;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.text.TextUtils;
 import android.util.Base64;
 import android.util.Log;
+import android.webkit.MimeTypeMap;
 import androidx.documentfile.provider.DocumentFile;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.cordova.CallbackContext;
@@ -51,24 +92,77 @@ public class SDcard extends CordovaPlugin {
   private final int OPEN_DOCUMENT = 6002;
   private final int PICK_FROM_GALLERY = 6003;
   private final String SEPARATOR = "::";
+  private final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+  private final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+  private final int TRANSFER_THREADS = 3;
+  private final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+  private final long PROGRESS_INTERVAL = 200;
+  private ExecutorService transferPool;
+  private Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+  private final int WALK_THREADS = 4;
+  private ExecutorService walkPool;
+  private Map<String, ContentSearch> searches = new ConcurrentHashMap<>();
+  private static final String[] LIST_PROJECTION = new String[] {
+    Document.COLUMN_DOCUMENT_ID,
+    Document.COLUMN_DISPLAY_NAME,
+    Document.COLUMN_MIME_TYPE,
+    Document.COLUMN_SIZE,
+    Document.COLUMN_LAST_MODIFIED,
+    Document.COLUMN_FLAGS,
+  };
   private StorageManager storageManager;
   private Context context;
   private Activity activity;
   private ContentResolver contentResolver;
   private DocumentFile originalRootFile;
   private CallbackContext activityResultCallback;
-  private HashMap<String, MyFileObserver> fileObservers = new HashMap();
+  private Map<String, FileWatcher> watchers = new ConcurrentHashMap<>();
+  private ScheduledExecutorService watchScheduler;
+  private DocumentIdCache documentIds = new DocumentIdCache();
+  private DirectAccess direct;
+  private Map<String, WriteSession> writeSessions = new ConcurrentHashMap<>();
+  private final long WRITE_SESSION_TIMEOUT = 5 * 60 * 1000;
+  private ScheduledFuture<?> writeSessionSweep;
 
   public void initialize(CordovaInterface cordova, CordovaWebView webView) {
     super.initialize(cordova, webView);
     this.REQUEST_CODE = this.ACCESS_INTENT;
     this.context = cordova.getContext();
     this.activity = cordova.getActivity();
+    this.direct = new DirectAccess(this.context);
     this.storageManager = (StorageManager) this.activity.getSystemService(
         Context.STORAGE_SERVICE
       );
   }
 
+  @Override
+  public void onDestroy() {
+    for (ContentSearch search : searches.values()) {
+      search.cancel();
+    }
+    if (walkPool != null) {
+      walkPool.shutdownNow();
+    }
+    for (Transfer transfer : transfers.values()) {
+      transfer.cancel();
+    }
+    if (transferPool != null) {
+      transferPool.shutdown();
+    }
+    for (FileWatcher watcher : watchers.values()) {
+      watcher.stop();
+    }
+    watchers.clear();
+    if (watchScheduler != null) {
+      watchScheduler.shutdownNow();
+    }
+    for (WriteSession session : writeSessions.values()) {
+      session.abort();
+    }
+    writeSessions.clear();
+    super.onDestroy();
+  }
+
   public boolean execute(
     String action,
     JSONArray args,
@@ -105,6 +199,21 @@ public class SDcard extends CordovaPlugin {
       case "read":
         readFile(arg1, callback);
         break;
+      case "read range":
+        readRange(
+          formatUri(arg1),
+          args.optLong(1),
+          args.optInt(2, DEFAULT_CHUNK_SIZE),
+          callback
+        );
+        break;
+      case "read stream":
+        readStream(
+          formatUri(arg1),
+          args.optInt(1, DEFAULT_CHUNK_SIZE),
+          callback
+        );
+        break;
       case "write":
         writeFile(
           formatUri(arg1),
@@ -113,6 +222,28 @@ public class SDcard extends CordovaPlugin {
           callback
         );
         break;
+      case "write open":
+        openWriteSession(
+          formatUri(arg1),
+          args.optString(1, "UTF-8"),
+          args.optBoolean(2),
+          callback
+        );
+        break;
+      case "write append":
+        appendWriteSession(
+          arg1,
+          args.optString(1),
+          args.optBoolean(2),
+          callback
+        );
+        break;
+      case "write commit":
+        commitWriteSession(arg1, callback);
+        break;
+      case "write abort":
+        abortWriteSession(arg1, callback);
+        break;
       case "rename":
         rename(arg1, arg2, callback);
         break;
@@ -120,10 +251,13 @@ public class SDcard extends CordovaPlugin {
         delete(formatUri(arg1), callback);
         break;
       case "copy":
-        copy(arg1, arg2, callback);
+        copy(arg1, arg2, arg3, callback);
         break;
       case "move":
-        move(arg1, arg2, callback);
+        move(arg1, arg2, arg3, callback);
+        break;
+      case "cancel transfer":
+        cancelTransfer(arg1, callback);
         break;
       case "get path":
         getPath(formatUri(arg1), arg2, callback);
@@ -135,20 +269,61 @@ public class SDcard extends CordovaPlugin {
         callback.success(formatUri(arg1));
         break;
       case "list directory":
+        // The second argument is the listing options, not a document id
+        arg2 = null;
+        if (arg1.contains(SEPARATOR)) {
+          String splittedStr[] = arg1.split(SEPARATOR, 2);
+          arg1 = splittedStr[0];
+          arg2 = splittedStr[1];
+        }
+
+        listDir(arg1, arg2, args.optJSONObject(1), callback);
+
+        break;
+      case "walk":
+        arg2 = null;
         if (arg1.contains(SEPARATOR)) {
           String splittedStr[] = arg1.split(SEPARATOR, 2);
           arg1 = splittedStr[0];
           arg2 = splittedStr[1];
         }
 
-        listDir(arg1, arg2, callback);
+        walk(arg1, arg2, args.optJSONObject(1), callback);
+        break;
+      case "search":
+        arg2 = null;
+        if (arg1.contains(SEPARATOR)) {
+          String splittedStr[] = arg1.split(SEPARATOR, 2);
+          arg1 = splittedStr[0];
+          arg2 = splittedStr[1];
+        }
 
+        search(
+          arg1,
+          arg2,
+          args.optString(1),
+          args.optJSONObject(2),
+          args.optString(3, null),
+          callback
+        );
+        break;
+      case "cancel search":
+        cancelSearch(arg1, callback);
         break;
       case "stats":
         getStats(arg1, callback);
         break;
+      case "stats many":
+        statMany(args.optJSONArray(0), callback);
+        break;
+      case "exists many":
+        existsMany(args.optJSONArray(0), callback);
+        break;
+      case "benchmark":
+        benchmark(formatUri(arg1), args.optInt(1, 5), callback);
+        break;
       case "watch file":
-        watchFile(arg1, arg2, callback);
+        watchFile(arg1, arg2, args.optJSONObject(2), callback);
         break;
       case "unwatch file":
         unwatchFile(arg1);
@@ -177,39 +352,48 @@ public class SDcard extends CordovaPlugin {
   private void watchFile(
     final String fileUri,
     final String id,
+    final JSONObject options,
     final CallbackContext listener
   ) {
-    activity.runOnUiThread(
-      new Runnable() {
-        @Override
-        public void run() {
-          MyFileObserver observer;
-          Uri uri = Uri.parse(fileUri);
-          File file = new File(uri.getPath());
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            Uri uri = Uri.parse(fileUri);
+            File file = direct.toFile(uri);
+            if (file == null) file = new File(uri.getPath());
 
-          if (!file.exists()) {
-            listener.error("File not found");
-            return;
-          }
+            if (!file.exists()) {
+              listener.error("File not found");
+              return;
+            }
 
-          if (SDK_INT >= 29) {
-            observer = new MyFileObserver(file, listener);
-          } else {
-            observer = new MyFileObserver(fileUri, listener);
+            FileWatcher watcher = new FileWatcher(
+              file,
+              options,
+              getWatchScheduler(),
+              listener
+            );
+            watcher.start();
+            watchers.put(id, watcher);
           }
-
-          observer.startObserving();
-          fileObservers.put(id, observer);
         }
-      }
-    );
+      );
   }
 
   private void unwatchFile(String id) {
-    MyFileObserver observer = fileObservers.get(id);
-    if (observer == null) return;
-    observer.stopObserving();
-    fileObservers.remove(id);
+    FileWatcher watcher = watchers.remove(id);
+    if (watcher == null) return;
+    watcher.stop();
+  }
+
+  private synchronized ScheduledExecutorService getWatchScheduler() {
+    if (watchScheduler == null) {
+      watchScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+    return watchScheduler;
   }
 
   public void openDocumentFile(String mimeType, CallbackContext callback) {
@@ -411,6 +595,16 @@ public class SDcard extends CordovaPlugin {
           public void run() {
             try {
               Uri uri = Uri.parse(filename);
+              File file = direct.toFile(uri);
+              if (file != null) {
+                try {
+                  callback.success(Files.readAllBytes(file.toPath()));
+                  return;
+                } catch (IOException | SecurityException e) {
+                  Log.w("SDcard", "Direct read failed, using SAF", e);
+                }
+              }
+
               InputStream is = context
                 .getContentResolver()
                 .openInputStream(uri);
@@ -436,6 +630,169 @@ public class SDcard extends CordovaPlugin {
       );
   }
 
+  private void readRange(
+    String filename,
+    long offset,
+    int length,
+    CallbackContext callback
+  ) {
+    if (offset < 0 || length < 0) {
+      callback.error("Invalid range");
+      return;
+    }
+
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try (
+              InputStream is = openInputStreamAt(Uri.parse(filename), offset)
+            ) {
+              if (is == null) {
+                callback.error("File not found");
+                return;
+              }
+
+              // The range may run past the end of the file, so the output
+              // grows with what is actually read instead of being allocated
+              // at length up front.
+              ByteArrayOutputStream output = new ByteArrayOutputStream(
+                Math.min(length, DEFAULT_CHUNK_SIZE)
+              );
+              byte[] buffer = new byte[Math.min(length, DEFAULT_CHUNK_SIZE)];
+              int total = 0;
+              int bytesRead;
+              while (
+                total < length &&
+                (bytesRead =
+                    is.read(buffer, 0, Math.min(buffer.length, length - total))) !=
+                -1
+              ) {
+                output.write(buffer, 0, bytesRead);
+                total += bytesRead;
+              }
+
+              callback.success(output.toByteArray());
+            } catch (Exception e) {
+              callback.error(e.toString());
+            }
+          }
+        }
+      );
+  }
+
+  private void readStream(
+    String filename,
+    int chunkSize,
+    CallbackContext callback
+  ) {
+    if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+      callback.error("Chunk size must be between 1 and " + MAX_CHUNK_SIZE);
+      return;
+    }
+
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try (InputStream is = openInputStreamAt(Uri.parse(filename), 0)) {
+              if (is == null) {
+                callback.error("File not found");
+                return;
+              }
+
+              byte[] buffer = new byte[chunkSize];
+              long total = 0;
+              int filled = 0;
+              int bytesRead;
+              while (
+                (bytesRead = is.read(buffer, filled, chunkSize - filled)) != -1
+              ) {
+                filled += bytesRead;
+                if (filled == chunkSize) {
+                  sendChunk(callback, buffer, filled);
+                  total += filled;
+                  filled = 0;
+                }
+              }
+
+              if (filled > 0) {
+                sendChunk(callback, buffer, filled);
+                total += filled;
+              }
+
+              JSONObject end = new JSONObject();
+              end.put("length", total);
+              callback.success(end);
+            } catch (Exception e) {
+              callback.error(e.toString());
+            }
+          }
+        }
+      );
+  }
+
+  private void sendChunk(CallbackContext callback, byte[] buffer, int length) {
+    PluginResult result = new PluginResult(
+      PluginResult.Status.OK,
+      Arrays.copyOf(buffer, length)
+    );
+    result.setKeepCallback(true);
+    callback.sendPluginResult(result);
+  }
+
+  /**
+   * Opens the document positioned at offset. Seeks on the file descriptor
+   * when the provider hands out a real file, otherwise skips through the
+   * stream.
+   */
+  private InputStream openInputStreamAt(Uri uri, long offset)
+    throws IOException {
+    File file = direct.toFile(uri);
+    if (file != null) {
+      try {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+          fis.getChannel().position(offset);
+        } catch (IOException e) {
+          fis.close();
+          throw e;
+        }
+        return fis;
+      } catch (IOException | SecurityException e) {
+        Log.w("SDcard", "Direct open failed, using SAF", e);
+      }
+    }
+
+    ContentResolver contentResolver = context.getContentResolver();
+    ParcelFileDescriptor pfd = null;
+
+    try {
+      pfd = contentResolver.openFileDescriptor(uri, "r");
+    } catch (FileNotFoundException | SecurityException e) {
+      // Fall back to the stream below
+    }
+
+    if (pfd != null) {
+      FileInputStream fis = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+      try {
+        fis.getChannel().position(offset);
+        return fis;
+      } catch (IOException e) {
+        // Pipes and sockets are not seekable
+        fis.close();
+      }
+    }
+
+    InputStream is = contentResolver.openInputStream(uri);
+    if (is != null && offset > 0) {
+      IOUtils.skipFully(is, offset);
+    }
+    return is;
+  }
+
   private void writeFile(
     final String filename,
     final String content,
@@ -450,6 +807,17 @@ public class SDcard extends CordovaPlugin {
         new Runnable() {
           public void run() {
             try {
+              File directFile = direct.toFile(Uri.parse(filename));
+              if (directFile != null) {
+                try {
+                  writeDirect(directFile, content, isArrayBuffer);
+                  callback.success("OK");
+                  return;
+                } catch (IOException | SecurityException e) {
+                  Log.w("SDcard", "Direct write failed, using SAF", e);
+                }
+              }
+
               DocumentFile file = getFile(filename);
               if (file == null) {
                 callback.error("File not fount.");
@@ -485,6 +853,199 @@ public class SDcard extends CordovaPlugin {
       );
   }
 
+  private void writeDirect(File file, String content, boolean isArrayBuffer)
+    throws IOException {
+    byte[] bytes = isArrayBuffer
+      ? Base64.decode(content, Base64.DEFAULT)
+      : content.getBytes(StandardCharsets.UTF_8);
+
+    try (
+      FileChannel channel = FileChannel.open(
+        file.toPath(),
+        StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING
+      )
+    ) {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  private void openWriteSession(
+    String filename,
+    String charset,
+    boolean atomic,
+    CallbackContext callback
+  ) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              Uri uri = Uri.parse(filename);
+              WriteSession session;
+
+              if (atomic && "file".equals(uri.getScheme())) {
+                File target = new File(uri.getPath());
+                File temp = File.createTempFile(
+                  "." + target.getName(),
+                  ".tmp",
+                  target.getParentFile()
+                );
+                session = new WriteSession(
+                  new FileOutputStream(temp),
+                  Charset.forName(charset),
+                  temp,
+                  target,
+                  cordova.getThreadPool()
+                );
+              } else {
+                if (!canWrite(uri)) {
+                  callback.error("No write permission");
+                  return;
+                }
+
+                OutputStream os = context
+                  .getContentResolver()
+                  .openOutputStream(uri, "rwt");
+                if (os == null) {
+                  callback.error("File not found");
+                  return;
+                }
+                session = new WriteSession(
+                  os,
+                  Charset.forName(charset),
+                  null,
+                  null,
+                  cordova.getThreadPool()
+                );
+              }
+
+              String id = UUID.randomUUID().toString();
+              writeSessions.put(id, session);
+              scheduleWriteSessionSweep();
+              callback.success(id);
+            } catch (Exception e) {
+              callback.error(e.toString());
+            }
+          }
+        }
+      );
+  }
+
+  /**
+   * Aborts sessions that have been idle for WRITE_SESSION_TIMEOUT, so a
+   * session the caller forgot about doesn't keep its stream and temp file.
+   */
+  private synchronized void scheduleWriteSessionSweep() {
+    if (writeSessionSweep != null) return;
+
+    writeSessionSweep =
+      getWatchScheduler()
+        .scheduleWithFixedDelay(
+          new Runnable() {
+            public void run() {
+              for (
+                Map.Entry<String, WriteSession> entry : writeSessions.entrySet()
+              ) {
+                WriteSession session = entry.getValue();
+                if (
+                  session.isIdle(WRITE_SESSION_TIMEOUT) &&
+                  writeSessions.remove(entry.getKey(), session)
+                ) {
+                  session.abort();
+                }
+              }
+            }
+          },
+          WRITE_SESSION_TIMEOUT,
+          WRITE_SESSION_TIMEOUT / 5,
+          TimeUnit.MILLISECONDS
+        );
+  }
+
+  /**
+   * Appends, commit and abort of a session run in order, one at a time, so
+   * chunks can't overtake each other or the commit on the shared thread
+   * pool.
+   */
+  private void appendWriteSession(
+    String id,
+    String content,
+    boolean isArrayBuffer,
+    CallbackContext callback
+  ) {
+    WriteSession session = writeSessions.get(id);
+    if (session == null) {
+      callback.error("Write session not found");
+      return;
+    }
+
+    session.execute(
+      new Runnable() {
+        public void run() {
+          try {
+            if (isArrayBuffer) {
+              session.write(Base64.decode(content, Base64.DEFAULT));
+            } else {
+              session.write(content);
+            }
+            callback.success("OK");
+          } catch (IOException e) {
+            writeSessions.remove(id);
+            session.abort();
+            callback.error(e.toString());
+          }
+        }
+      },
+      callback
+    );
+  }
+
+  private void commitWriteSession(String id, CallbackContext callback) {
+    WriteSession session = writeSessions.remove(id);
+    if (session == null) {
+      callback.error("Write session not found");
+      return;
+    }
+
+    session.execute(
+      new Runnable() {
+        public void run() {
+          try {
+            session.commit();
+            callback.success("OK");
+          } catch (IOException e) {
+            session.abort();
+            callback.error(e.toString());
+          }
+        }
+      },
+      callback
+    );
+  }
+
+  private void abortWriteSession(String id, CallbackContext callback) {
+    WriteSession session = writeSessions.remove(id);
+    if (session == null) {
+      callback.success("OK");
+      return;
+    }
+
+    session.execute(
+      new Runnable() {
+        public void run() {
+          session.abort();
+          callback.success("OK");
+        }
+      },
+      callback
+    );
+  }
+
   private void createDir(String parent, String name, CallbackContext callback) {
     create(parent, name, Document.MIME_TYPE_DIR, callback);
   }
@@ -588,6 +1149,9 @@ public class SDcard extends CordovaPlugin {
 
             try {
               DocumentFile file = DocumentFile.fromTreeUri(context, fileUri);
+              documentIds.invalidate(
+                DocumentsContract.getDocumentId(file.getUri())
+              );
               // If only case change, OS adds '(<number>)' as suffix, to avoid that we need to rename to a temporary name first
               if (newFile.equalsIgnoreCase(file.getName())) {
                 file.renameTo(newFile + "_temp");
@@ -620,6 +1184,11 @@ public class SDcard extends CordovaPlugin {
             Uri fileUri = Uri.parse(filename);
 
             try {
+              if (DocumentsContract.isDocumentUri(context, fileUri)) {
+                documentIds.invalidate(
+                  DocumentsContract.getDocumentId(fileUri)
+                );
+              }
               boolean fileDeleted = DocumentsContract.deleteDocument(
                 contentResolver,
                 fileUri
@@ -638,8 +1207,31 @@ public class SDcard extends CordovaPlugin {
       );
   }
 
-  private void move(String src, String dest, final CallbackContext callback) {
-    final ContentResolver contentResolver = this.context.getContentResolver();
+  private void move(
+    String src,
+    String dest,
+    String id,
+    final CallbackContext callback
+  ) {
+    transfer(src, dest, id, true, callback);
+  }
+
+  private void copy(
+    String src,
+    String dest,
+    String id,
+    final CallbackContext callback
+  ) {
+    transfer(src, dest, id, false, callback);
+  }
+
+  private void transfer(
+    String src,
+    String dest,
+    String id,
+    boolean isMove,
+    final CallbackContext callback
+  ) {
     final String splittedStr[] = src.split(SEPARATOR, 2);
     final String rootUri = splittedStr[0];
     final String srcId = splittedStr[1];
@@ -651,133 +1243,359 @@ public class SDcard extends CordovaPlugin {
         new Runnable() {
           @Override
           public void run() {
+            Transfer transfer = new Transfer(
+              rootUri,
+              srcId,
+              destId,
+              isMove,
+              id == null ? null : callback
+            );
+            if (id != null) transfers.put(id, transfer);
+
             try {
-              Uri newUri = copy(rootUri, srcId, destId);
-              if (newUri == null) callback.error("Unable to copy " + src);
-              else {
-                DocumentsContract.deleteDocument(
-                  contentResolver,
-                  getUri(rootUri, srcId)
-                );
+              Uri newUri = transfer.run();
+              if (newUri == null) {
+                callback.error("Unable to copy " + src);
+              } else {
                 callback.success(
                   rootUri + SEPARATOR + DocumentsContract.getDocumentId(newUri)
                 );
               }
             } catch (Exception e) {
               callback.error(e.toString());
+            } finally {
+              if (id != null) transfers.remove(id);
             }
           }
         }
       );
   }
 
-  private void copy(String src, String dest, final CallbackContext callback) {
-    final String splittedStr[] = src.split(SEPARATOR, 2);
-    final String srcUri = splittedStr[0];
-    final String srcId = splittedStr[1];
-    final String destId = dest.split(SEPARATOR, 2)[1];
+  private void cancelTransfer(String id, CallbackContext callback) {
+    Transfer transfer = transfers.get(id);
+    if (transfer == null) {
+      callback.error("No such transfer");
+      return;
+    }
 
-    cordova
-      .getThreadPool()
-      .execute(
-        new Runnable() {
-          @Override
-          public void run() {
-            try {
-              Uri newUri = copy(srcUri, srcId, destId);
-              if (newUri == null) {
-                callback.error("Unable to copy " + src);
-              } else {
-                callback.success(
-                  srcUri + SEPARATOR + DocumentsContract.getDocumentId(newUri)
-                );
-              }
-            } catch (Exception e) {
-              callback.error(e.toString());
-            }
+    transfer.cancel();
+    callback.success("OK");
+  }
+
+  private synchronized ExecutorService getTransferPool() {
+    if (transferPool == null) {
+      transferPool = Executors.newFixedThreadPool(TRANSFER_THREADS);
+    }
+    return transferPool;
+  }
+
+  /**
+   * Copies or moves a document within a tree. Providers that implement
+   * copyDocument/moveDocument do the work themselves; otherwise directories
+   * are recreated and files are streamed in parallel on the transfer pool,
+   * reporting progress if a progress callback is given.
+   */
+  private class Transfer {
+
+    private final String root;
+    private final String srcId;
+    private final String destId;
+    private final boolean isMove;
+    private final CallbackContext progress;
+    private final ContentResolver resolver = context.getContentResolver();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    // First error of the parallel file copies
+    private final AtomicReference<Exception> failure =
+      new AtomicReference<Exception>();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicInteger copiedFiles = new AtomicInteger();
+    private final List<Runnable> files = new ArrayList<Runnable>();
+    private long totalBytes = 0;
+    private long lastProgress = 0;
+
+    Transfer(
+      String root,
+      String srcId,
+      String destId,
+      boolean isMove,
+      CallbackContext progress
+    ) {
+      this.root = root;
+      this.srcId = srcId;
+      this.destId = destId;
+      this.isMove = isMove;
+      this.progress = progress;
+    }
+
+    void cancel() {
+      cancelled.set(true);
+    }
+
+    Uri run() throws Exception {
+      Uri srcUri = getUri(root, srcId);
+      Uri destUri = getUri(root, destId);
+      DocumentInfo src = DocumentInfo.query(resolver, srcUri);
+      if (src == null) throw new FileNotFoundException(srcUri.toString());
+
+      Uri newUri = isMove
+        ? providerMove(src, srcUri, destUri)
+        : providerCopy(src, srcUri, destUri);
+      if (newUri != null) {
+        documentIds.invalidate(srcId);
+        return newUri;
+      }
+
+      if (src.isDirectory()) {
+        newUri = createDirectory(src, destUri);
+        try {
+          plan(srcId, src.name, newUri);
+          copyFiles();
+        } catch (Exception e) {
+          // Every copy has finished by now, so nothing writes into the
+          // directory while it is deleted
+          try {
+            DocumentsContract.deleteDocument(resolver, newUri);
+          } catch (Exception deleteError) {
+            Log.w("SDcard", "Unable to delete partial copy", deleteError);
           }
+          throw e;
         }
-      );
-  }
+      } else {
+        totalBytes = src.size;
+        newUri = copyFile(src, srcUri, destUri);
+      }
 
-  private Uri copy(String root, String srcId, String destId)
-    throws IOException, FileNotFoundException {
-    Uri srcUri = getUri(root, srcId);
-    Uri destUri = getUri(root, destId);
-    DocumentFile src = getFile(srcUri);
-    DocumentFile dest = getFile(destUri);
-    ContentResolver contentResolver = context.getContentResolver();
+      if (isMove) {
+        documentIds.invalidate(srcId);
+        DocumentsContract.deleteDocument(resolver, srcUri);
+      }
+      return newUri;
+    }
 
-    if (src.isFile()) {
-      Uri newUri = copyFile(src, dest);
-      if (newUri == null) return null;
-      else return newUri;
-    } else {
-      destUri = DocumentsContract.createDocument(
-        contentResolver,
+    private Uri providerCopy(DocumentInfo src, Uri srcUri, Uri destUri) {
+      if (SDK_INT < 24 || !src.hasFlag(Document.FLAG_SUPPORTS_COPY)) {
+        return null;
+      }
+
+      try {
+        return DocumentsContract.copyDocument(resolver, srcUri, destUri);
+      } catch (Exception e) {
+        Log.w("SDcard", "copyDocument failed, streaming instead", e);
+        return null;
+      }
+    }
+
+    private Uri providerMove(DocumentInfo src, Uri srcUri, Uri destUri) {
+      if (SDK_INT < 26 || !src.hasFlag(Document.FLAG_SUPPORTS_MOVE)) {
+        return null;
+      }
+
+      try {
+        DocumentsContract.Path path = DocumentsContract.findDocumentPath(
+          resolver,
+          srcUri
+        );
+        List<String> ids = path == null ? null : path.getPath();
+        if (ids == null || ids.size() < 2) return null;
+
+        Uri parentUri = getUri(root, ids.get(ids.size() - 2));
+        return DocumentsContract.moveDocument(
+          resolver,
+          srcUri,
+          parentUri,
+          destUri
+        );
+      } catch (Exception e) {
+        Log.w("SDcard", "moveDocument failed, copying instead", e);
+        return null;
+      }
+    }
+
+    private Uri createDirectory(DocumentInfo dir, Uri destUri)
+      throws IOException {
+      checkCancelled();
+      Uri newDirUri = DocumentsContract.createDocument(
+        resolver,
         destUri,
         Document.MIME_TYPE_DIR,
-        src.getName()
+        dir.name
       );
-      destId = DocumentsContract.getDocumentId(destUri);
+      if (newDirUri == null) {
+        throw new IOException("Unable to create " + dir.name);
+      }
+      return newDirUri;
+    }
 
+    /**
+     * Recreates the directory structure below dirId under newDirUri and
+     * queues every file for copying.
+     */
+    private void plan(String dirId, String dirName, Uri newDirUri)
+      throws IOException {
       Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(
         Uri.parse(root),
-        srcId
-      );
-      Cursor c = contentResolver.query(
-        childrenUri,
-        new String[] { Document.COLUMN_DOCUMENT_ID },
-        null,
-        null,
-        null
+        dirId
       );
-      if (c != null) {
-        while (c.moveToNext()) {
-          String docId = c.getString(0);
-          copy(root, docId, destId);
+      try (
+        Cursor cursor = resolver.query(
+          childrenUri,
+          DocumentInfo.PROJECTION,
+          null,
+          null,
+          null
+        )
+      ) {
+        if (cursor == null) {
+          throw new IOException("Cannot read directory " + dirName);
+        }
+
+        while (cursor.moveToNext()) {
+          DocumentInfo child = DocumentInfo.from(cursor);
+          String childId = cursor.getString(0);
+          if (child.isDirectory()) {
+            plan(childId, child.name, createDirectory(child, newDirUri));
+          } else {
+            totalBytes += child.size;
+            Uri childUri = getUri(root, childId);
+            files.add(
+              new Runnable() {
+                public void run() {
+                  try {
+                    copyFile(child, childUri, newDirUri);
+                  } catch (IOException | RuntimeException e) {
+                    // Stop the remaining copies; they fail fast once
+                    // cancelled is set
+                    failure.compareAndSet(null, e);
+                    cancelled.set(true);
+                  }
+                }
+              }
+            );
+          }
         }
-        c.close();
-        return destUri;
-      } else {
-        DocumentsContract.deleteDocument(contentResolver, destUri);
-        return null;
       }
     }
-  }
 
-  private Uri copyFile(DocumentFile src, DocumentFile dest)
-    throws IOException, FileNotFoundException {
-    ContentResolver contentResolver = this.context.getContentResolver();
+    /**
+     * Runs the queued copies on the transfer pool and waits for all of them,
+     * even after one fails, so the caller can clean up once nothing is
+     * writing anymore. Throws the first failure.
+     */
+    private void copyFiles() throws Exception {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (Runnable file : files) {
+        futures.add(getTransferPool().submit(file));
+      }
 
-    Uri newFileUri = DocumentsContract.createDocument(
-      contentResolver,
-      dest.getUri(),
-      src.getType(),
-      src.getName()
-    );
-    DocumentFile newFile = getFile(newFileUri);
-    InputStream is = contentResolver.openInputStream(src.getUri());
-    OutputStream os = contentResolver.openOutputStream(newFile.getUri(), "rwt");
+      boolean interrupted = false;
+      for (Future<?> future : futures) {
+        while (true) {
+          try {
+            future.get();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+            failure.compareAndSet(null, e);
+            cancelled.set(true);
+          } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            failure.compareAndSet(
+              null,
+              cause instanceof Exception ? (Exception) cause : e
+            );
+            cancelled.set(true);
+            break;
+          }
+        }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
 
-    if (is == null || os == null) {
-      DocumentsContract.deleteDocument(contentResolver, newFileUri);
-      return null;
+      Exception error = failure.get();
+      if (error != null) throw error;
     }
 
-    IOUtils.copy(is, os);
+    private Uri copyFile(DocumentInfo src, Uri srcUri, Uri destDirUri)
+      throws IOException {
+      checkCancelled();
+      Uri newFileUri = DocumentsContract.createDocument(
+        resolver,
+        destDirUri,
+        src.mime,
+        src.name
+      );
+      if (newFileUri == null) {
+        throw new IOException("Unable to create " + src.name);
+      }
 
-    is.close();
-    os.close();
+      long copied = 0;
+      try (
+        InputStream is = resolver.openInputStream(srcUri);
+        OutputStream os = resolver.openOutputStream(newFileUri, "rwt")
+      ) {
+        if (is == null || os == null) {
+          throw new IOException("Unable to open " + src.name);
+        }
 
-    if (src.length() == newFile.length()) return newFile.getUri();
-    else {
-      DocumentsContract.deleteDocument(contentResolver, newFileUri);
-      return null;
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = is.read(buffer)) != -1) {
+          checkCancelled();
+          os.write(buffer, 0, bytesRead);
+          copied += bytesRead;
+          reportProgress(bytesRead, false);
+        }
+      } catch (IOException e) {
+        DocumentsContract.deleteDocument(resolver, newFileUri);
+        throw e;
+      }
+
+      // The size from the listing is enough to detect a short copy, no need
+      // to query both documents again.
+      if (src.size > 0 && copied != src.size) {
+        DocumentsContract.deleteDocument(resolver, newFileUri);
+        throw new IOException("Incomplete copy of " + src.name);
+      }
+
+      copiedFiles.incrementAndGet();
+      reportProgress(0, true);
+      return newFileUri;
+    }
+
+    private void checkCancelled() throws IOException {
+      if (cancelled.get()) throw new IOException("Cancelled");
+    }
+
+    private void reportProgress(long bytes, boolean force) {
+      long copied = copiedBytes.addAndGet(bytes);
+      if (progress == null) return;
+
+      long now = System.currentTimeMillis();
+      synchronized (this) {
+        if (!force && now - lastProgress < PROGRESS_INTERVAL) return;
+        lastProgress = now;
+      }
+
+      try {
+        JSONObject event = new JSONObject();
+        event.put("copiedBytes", copied);
+        event.put("totalBytes", totalBytes);
+        event.put("copiedFiles", copiedFiles.get());
+        event.put("totalFiles", Math.max(files.size(), 1));
+        PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+        result.setKeepCallback(true);
+        progress.sendPluginResult(result);
+      } catch (JSONException e) {
+        Log.w("SDcard", "Unable to report progress", e);
+      }
     }
   }
 
-  private void listDir(String src, String parentId, CallbackContext callback) {
+  private void listDir(
+    String src,
+    String parentId,
+    JSONObject options,
+    CallbackContext callback
+  ) {
     cordova
       .getThreadPool()
       .execute(
@@ -791,6 +1609,30 @@ public class SDcard extends CordovaPlugin {
               parentDocId = DocumentsContract.getTreeDocumentId(srcUri);
             }
 
+            File dir = null;
+            if (
+              DirectAccess.AUTHORITY.equals(srcUri.getAuthority()) &&
+              direct.isEnabled()
+            ) {
+              dir = direct.toFile(parentDocId);
+            }
+            if (dir != null) {
+              try {
+                ListOptions listOptions = new ListOptions(options);
+                List<JSONObject> entries = listDirect(
+                  dir,
+                  src,
+                  parentDocId,
+                  listOptions
+                );
+                listOptions.sort(entries);
+                callback.success(new JSONArray(entries));
+                return;
+              } catch (IOException | SecurityException | JSONException e) {
+                Log.w("SDcard", "Direct listing failed, using SAF", e);
+              }
+            }
+
             Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(
               srcUri,
               parentDocId
@@ -802,11 +1644,7 @@ public class SDcard extends CordovaPlugin {
             try {
               cursor = contentResolver.query(
                 childrenUri,
-                new String[] {
-                  Document.COLUMN_DOCUMENT_ID,
-                  Document.COLUMN_DISPLAY_NAME,
-                  Document.COLUMN_MIME_TYPE,
-                },
+                LIST_PROJECTION,
                 null,
                 null,
                 null
@@ -829,19 +1667,25 @@ public class SDcard extends CordovaPlugin {
             }
 
             try {
+              ListOptions listOptions = new ListOptions(options);
+              List<JSONObject> entries = new ArrayList<JSONObject>();
+
               while (cursor.moveToNext()) {
-                JSONObject fileData = new JSONObject();
-                String docId = cursor.getString(0);
                 String name = cursor.getString(1);
-                String mime = cursor.getString(2);
-                boolean isDirectory = isDirectory(mime);
-
-                fileData.put("name", name);
-                fileData.put("mime", mime);
-                fileData.put("isDirectory", isDirectory);
-                fileData.put("isFile", !isDirectory);
-                fileData.put("uri", src + SEPARATOR + docId); // TODO: Deprecate in future
-                fileData.put("url", src + SEPARATOR + docId);
+                documentIds.put(
+                  srcUri.getAuthority(),
+                  parentDocId,
+                  name,
+                  cursor.getString(0)
+                );
+                if (!listOptions.accepts(name)) continue;
+
+                JSONObject fileData = listEntry(cursor, src);
+                entries.add(fileData);
+              }
+
+              listOptions.sort(entries);
+              for (JSONObject fileData : entries) {
                 result.put(fileData);
               }
 
@@ -864,150 +1708,1283 @@ public class SDcard extends CordovaPlugin {
       );
   }
 
-  private boolean isDirectory(String mimeType) {
-    return DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType);
+  /**
+   * Lists a directory on disk, reading each entry's attributes in one call.
+   */
+  private List<JSONObject> listDirect(
+    File dir,
+    String src,
+    String parentDocId,
+    ListOptions options
+  ) throws IOException, JSONException {
+    String authority = Uri.parse(src).getAuthority();
+    List<JSONObject> entries = new ArrayList<JSONObject>();
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+      for (Path path : stream) {
+        String name = path.getFileName().toString();
+        String docId = DirectAccess.childId(parentDocId, name);
+        documentIds.put(authority, parentDocId, name, docId);
+        if (!options.accepts(name)) continue;
+
+        BasicFileAttributes attrs = Files.readAttributes(
+          path,
+          BasicFileAttributes.class
+        );
+        File file = path.toFile();
+        boolean isDirectory = attrs.isDirectory();
+        entries.add(
+          listEntry(
+            src,
+            docId,
+            name,
+            DirectAccess.getMimeType(file, isDirectory),
+            isDirectory ? 0 : attrs.size(),
+            attrs.lastModifiedTime().toMillis(),
+            DirectAccess.getFlags(file, isDirectory)
+          )
+        );
+      }
+    }
+
+    return entries;
   }
 
-  private void getStats(String filename, CallbackContext callback) {
+  private void walk(
+    String src,
+    String parentId,
+    JSONObject options,
+    CallbackContext callback
+  ) {
     cordova
       .getThreadPool()
       .execute(
         new Runnable() {
           public void run() {
-            String fileUri = formatUri(filename);
-
             try {
-              DocumentFile file = getFile(fileUri);
-
-              JSONObject result = new JSONObject();
-              result.put("exists", file.exists());
-              result.put("canRead", file.canRead());
-              result.put("canWrite", canWrite(file.getUri()));
-              result.put("name", file.getName());
-              result.put("length", file.length());
-              result.put("type", file.getType());
-              result.put("isFile", file.isFile());
-              result.put("isDirectory", file.isDirectory());
-              result.put("isVirtual", file.isVirtual());
-              result.put("lastModified", file.lastModified());
-              result.put("url", file.getUri().toString());
+              Uri srcUri = Uri.parse(src);
+              String rootDocId = parentId;
+              if (rootDocId == null) {
+                rootDocId = DocumentsContract.getTreeDocumentId(srcUri);
+              }
 
-              callback.success(result);
+              new TreeWalk(src, options, callback).start(rootDocId);
             } catch (Exception e) {
-              callback.error(e.getMessage());
+              callback.error(e.toString());
             }
           }
         }
       );
   }
 
-  private Uri getUri(String src, String docId) {
-    Uri srcUri = Uri.parse(src);
-    String srcId = DocumentsContract.getTreeDocumentId(srcUri);
-    srcUri = DocumentsContract.buildDocumentUriUsingTree(srcUri, srcId);
-    return DocumentsContract.buildDocumentUriUsingTree(srcUri, docId);
+  private synchronized ExecutorService getWalkPool() {
+    if (walkPool == null) {
+      walkPool = Executors.newFixedThreadPool(WALK_THREADS);
+    }
+    return walkPool;
   }
 
-  private void exists(String path, CallbackContext callback) {
-    DocumentFile file = DocumentFile.fromSingleUri(context, Uri.parse(path));
-
-    if (file == null) {
-      callback.error("Unable to get file");
-    } else {
-      if (file.exists()) {
-        callback.success("TRUE");
-      } else {
-        callback.success("FALSE");
+  /**
+   * Recursive listing of a document tree. Every directory is one children
+   * query, and sibling subtrees are queried in parallel on the walk pool.
+   * Entries are reported in batches as keep-callback results, followed by a
+   * final {count} result.
+   */
+  private class TreeWalk {
+
+    private final String src;
+    private final CallbackContext callback;
+    private final int maxDepth;
+    private final int batchSize;
+    private final List<Pattern> ignore = new ArrayList<Pattern>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private JSONArray batch = new JSONArray();
+    private int count = 0;
+
+    TreeWalk(String src, JSONObject options, CallbackContext callback) {
+      if (options == null) options = new JSONObject();
+      this.src = src;
+      this.callback = callback;
+      this.maxDepth = options.optInt("maxDepth", Integer.MAX_VALUE);
+      this.batchSize = options.optInt("batchSize", 500);
+
+      JSONArray globs = options.optJSONArray("ignore");
+      if (globs != null) {
+        for (int i = 0; i < globs.length(); i++) {
+          ignore.add(Glob.compile(globs.optString(i)));
+        }
       }
     }
-  }
 
-  private void error(String err, CallbackContext callback) {
-    callback.error("ERROR: " + err);
-  }
+    void start(String rootDocId) {
+      submit(rootDocId, "", 0);
+    }
 
-  private void getPath(String uriString, String src, CallbackContext callback) {
-    try {
-      DocumentFile file = geRelativeDocumentFile(uriString, src);
+    private void submit(String docId, String path, int depth) {
+      pending.incrementAndGet();
+      getWalkPool()
+        .execute(
+          new Runnable() {
+            public void run() {
+              try {
+                if (!failed.get()) {
+                  visit(docId, path, depth);
+                }
+              } catch (Exception e) {
+                if (failed.compareAndSet(false, true)) {
+                  callback.error(e.toString());
+                }
+              } finally {
+                if (pending.decrementAndGet() == 0 && !failed.get()) {
+                  finish();
+                }
+              }
+            }
+          }
+        );
+    }
 
-      if (file == null) {
-        callback.error("Unable to get file");
-      } else {
-        Uri uri = file.getUri();
-        String path = uri.getPath();
+    private void visit(String docId, String path, int depth)
+      throws JSONException {
+      Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(
+        Uri.parse(src),
+        docId
+      );
 
-        if (path != null) {
-          callback.success(uri.toString());
-        } else {
-          callback.error("Unable to get path");
+      try (
+        Cursor cursor = context
+          .getContentResolver()
+          .query(childrenUri, LIST_PROJECTION, null, null, null)
+      ) {
+        if (cursor == null) return;
+
+        while (cursor.moveToNext()) {
+          String name = cursor.getString(1);
+          documentIds.put(
+            childrenUri.getAuthority(),
+            docId,
+            name,
+            cursor.getString(0)
+          );
+          String childPath = path.isEmpty() ? name : path + "/" + name;
+          if (isIgnored(name, childPath)) continue;
+
+          JSONObject entry = listEntry(cursor, src);
+          entry.put("path", childPath);
+          entry.put("depth", depth);
+          add(entry);
+
+          if (entry.getBoolean("isDirectory") && depth + 1 < maxDepth) {
+            submit(cursor.getString(0), childPath, depth + 1);
+          }
         }
       }
-    } catch (Exception e) {
-      callback.error(e.getMessage());
     }
-  }
 
-  private DocumentFile geRelativeDocumentFile(String uri, String filename) {
-    List<String> paths = new ArrayList<String>();
-    DocumentFile file = null;
-
-    file = DocumentFile.fromTreeUri(context, Uri.parse(uri));
-    if (!canWrite(file.getUri())) {
-      throw new RuntimeException("Cannot write file");
+    private boolean isIgnored(String name, String path) {
+      for (Pattern pattern : ignore) {
+        if (
+          pattern.matcher(name).matches() || pattern.matcher(path).matches()
+        ) {
+          return true;
+        }
+      }
+      return false;
     }
 
-    paths.addAll(Arrays.asList(filename.split("/")));
-
-    while (paths.size() > 0) {
-      String path = paths.remove(0);
-      filename = TextUtils.join("/", paths);
+    private synchronized void add(JSONObject entry) {
+      batch.put(entry);
+      count++;
+      if (batch.length() >= batchSize) {
+        flush();
+      }
+    }
 
-      if (!path.equals("")) {
-        file = file.findFile(path);
+    private synchronized void flush() {
+      if (batch.length() == 0) return;
+      PluginResult result = new PluginResult(PluginResult.Status.OK, batch);
+      result.setKeepCallback(true);
+      callback.sendPluginResult(result);
+      batch = new JSONArray();
+    }
 
-        if (file == null) return null;
+    private synchronized void finish() {
+      flush();
+      try {
+        JSONObject end = new JSONObject();
+        end.put("count", count);
+        callback.success(end);
+      } catch (JSONException e) {
+        callback.error(e.toString());
       }
     }
-
-    return file;
   }
 
-  private DocumentFile getFile(Uri uri) {
-    return getFile(uri.toString());
+  private void search(
+    String src,
+    String parentId,
+    String query,
+    JSONObject options,
+    String id,
+    CallbackContext callback
+  ) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              ContentSearch search = new ContentSearch(
+                src,
+                query,
+                options,
+                id,
+                callback
+              );
+              if (id != null) searches.put(id, search);
+              search.start(parentId);
+            } catch (Exception e) {
+              if (id != null) searches.remove(id);
+              callback.error(e.toString());
+            }
+          }
+        }
+      );
   }
 
-  private DocumentFile getFile(String filePath) {
-    Uri fileUri = Uri.parse(filePath);
-    DocumentFile documentFile = null;
-
-    if (filePath.matches("file:///(.*)")) {
-      File file = new File(fileUri.getPath());
-      documentFile = DocumentFile.fromFile(file);
-    } else {
-      documentFile = DocumentFile.fromSingleUri(context, fileUri);
+  private void cancelSearch(String id, CallbackContext callback) {
+    ContentSearch search = searches.remove(id);
+    if (search == null) {
+      callback.error("No such search");
+      return;
     }
 
-    return documentFile;
+    search.cancel();
+    callback.success("OK");
   }
 
-  private void takePermission(Uri uri) {
-    contentResolver = context.getContentResolver();
-    contentResolver.takePersistableUriPermission(
-      uri,
-      Intent.FLAG_GRANT_WRITE_URI_PERMISSION |
-      Intent.FLAG_GRANT_READ_URI_PERMISSION
-    );
-  }
+  /**
+   * Searches file contents below a document tree or a file:// directory.
+   * Directories are listed and files are matched in parallel on the walk
+   * pool, so only the matches cross the bridge, in batches of
+   * {url, line, column, endLine, endColumn, match, preview}, followed by a
+   * final {files, matches, truncated, skipped} result. Binary files (a NUL
+   * byte in the first 8K) and files above maxFileSize are skipped, as are
+   * files and directories that can't be read. Symlinked directories aren't
+   * followed, so link cycles can't recurse forever.
+   *
+   * Files are streamed through the matcher in blocks of whole lines, so
+   * memory doesn't grow with file size. A match can't span two blocks,
+   * which only matters for regexes that match across many lines.
+   */
+  private class ContentSearch {
+
+    private static final int BINARY_CHECK_LENGTH = 8192;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    // Lines longer than this are searched in pieces
+    private static final int MAX_BLOCK_SIZE = 1024 * 1024;
+    private static final int PREVIEW_LENGTH = 120;
+
+    private final String src;
+    private final String id;
+    private final CallbackContext callback;
+    private final Pattern pattern;
+    private final byte[] literal;
+    private final boolean ignoreCase;
+    private final long maxFileSize;
+    private final int maxResults;
+    private final int batchSize;
+    private final List<Pattern> include = new ArrayList<Pattern>();
+    private final List<Pattern> exclude = new ArrayList<Pattern>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicInteger matches = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private JSONArray batch = new JSONArray();
+    private long lastFlush = System.currentTimeMillis();
+
+    ContentSearch(
+      String src,
+      String query,
+      JSONObject options,
+      String id,
+      CallbackContext callback
+    ) {
+      if (options == null) options = new JSONObject();
+      this.src = src;
+      this.id = id;
+      this.callback = callback;
+      this.maxFileSize = options.optLong("maxFileSize", Long.MAX_VALUE);
+      this.maxResults = options.optInt("maxResults", 10000);
+      this.batchSize = options.optInt("batchSize", 200);
+
+      boolean regex = options.optBoolean("regex", false);
+      boolean wholeWord = options.optBoolean("wholeWord", false);
+      ignoreCase = !options.optBoolean("caseSensitive", false);
+
+      int flags = ignoreCase
+        ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE
+        : 0;
+      String expression = regex ? query : Pattern.quote(query);
+      if (wholeWord) expression = "\\b(?:" + expression + ")\\b";
+      pattern = Pattern.compile(expression, flags | Pattern.MULTILINE);
+
+      // Plain strings are looked up on the raw bytes first, so files without
+      // a match are never decoded. Case folding is only done for ASCII.
+      byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+      literal = !regex && (!ignoreCase || isAscii(bytes)) ? bytes : null;
+
+      addGlobs(include, options.optJSONArray("include"));
+      addGlobs(exclude, options.optJSONArray("exclude"));
+    }
 
-  public boolean canWrite(Uri uri) {
-    boolean canWrite = false;
-    try {
-      // if the file is not writable this throws a SecurityException
-      OutputStream os = context
-        .getContentResolver()
-        .openOutputStream(uri, "wa");
+    void start(String rootDocId) {
+      Uri srcUri = Uri.parse(src);
+      File root = "file".equals(srcUri.getScheme())
+        ? new File(srcUri.getPath())
+        : null;
 
-      if (os == null) return false;
+      if (root == null) {
+        if (rootDocId == null) {
+          rootDocId = DocumentsContract.getTreeDocumentId(srcUri);
+        }
+        if (
+          DirectAccess.AUTHORITY.equals(srcUri.getAuthority()) &&
+          direct.isEnabled()
+        ) {
+          root = direct.toFile(rootDocId);
+          // Searched through SAF when the direct path can't read it
+          if (root != null && !root.canRead()) root = null;
+        }
+      }
+
+      final File rootDir = root;
+      final String docId = rootDocId;
+      submit(
+        new Task() {
+          public void run() throws Exception {
+            if (rootDir != null) {
+              visitDirectory(rootDir, "", docId);
+            } else {
+              visitDocument(docId, "");
+            }
+          }
+        }
+      );
+    }
+
+    void cancel() {
+      cancelled.set(true);
+    }
+
+    private void submit(Task task) {
+      pending.incrementAndGet();
+      getWalkPool()
+        .execute(
+          new Runnable() {
+            public void run() {
+              try {
+                if (!cancelled.get() && matches.get() < maxResults) {
+                  task.run();
+                }
+              } catch (IOException | SecurityException e) {
+                // One unreadable file or directory doesn't end the search
+                skipped.incrementAndGet();
+              } catch (Exception e) {
+                if (!cancelled.getAndSet(true)) {
+                  if (id != null) searches.remove(id);
+                  callback.error(e.toString());
+                }
+              } finally {
+                if (pending.decrementAndGet() == 0 && !cancelled.get()) {
+                  finish();
+                }
+              }
+            }
+          }
+        );
+    }
+
+    /**
+     * Searches a directory on disk. docId is set when the directory backs a
+     * document tree, so results keep using tree urls.
+     */
+    private void visitDirectory(File dir, String path, String docId) {
+      File[] children = dir.listFiles();
+      if (children == null) return;
+
+      for (File child : children) {
+        String name = child.getName();
+        String childPath = path.isEmpty() ? name : path + "/" + name;
+        String childId = docId == null
+          ? null
+          : DirectAccess.childId(docId, name);
+        if (matchesAny(exclude, name, childPath)) continue;
+
+        if (child.isDirectory()) {
+          if (isSymbolicLink(child)) continue;
+          submit(
+            new Task() {
+              public void run() {
+                visitDirectory(child, childPath, childId);
+              }
+            }
+          );
+        } else if (accepts(name, childPath, child.length())) {
+          String url = childId == null
+            ? Uri.fromFile(child).toString()
+            : src + SEPARATOR + childId;
+          submit(
+            new Task() {
+              public void run() throws Exception {
+                try (InputStream is = new FileInputStream(child)) {
+                  searchFile(url, is);
+                }
+              }
+            }
+          );
+        }
+      }
+    }
+
+    private void visitDocument(String docId, String path) {
+      Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(
+        Uri.parse(src),
+        docId
+      );
+
+      try (
+        Cursor cursor = context
+          .getContentResolver()
+          .query(childrenUri, LIST_PROJECTION, null, null, null)
+      ) {
+        if (cursor == null) return;
+
+        while (cursor.moveToNext()) {
+          String childId = cursor.getString(0);
+          String name = cursor.getString(1);
+          String childPath = path.isEmpty() ? name : path + "/" + name;
+          documentIds.put(childrenUri.getAuthority(), docId, name, childId);
+          if (matchesAny(exclude, name, childPath)) continue;
+
+          if (isDirectory(cursor.getString(2))) {
+            submit(
+              new Task() {
+                public void run() {
+                  visitDocument(childId, childPath);
+                }
+              }
+            );
+          } else if (
+            accepts(name, childPath, cursor.isNull(3) ? 0 : cursor.getLong(3))
+          ) {
+            Uri uri = getUri(src, childId);
+            submit(
+              new Task() {
+                public void run() throws Exception {
+                  try (
+                    InputStream is = context
+                      .getContentResolver()
+                      .openInputStream(uri)
+                  ) {
+                    if (is != null) {
+                      searchFile(src + SEPARATOR + childId, is);
+                    }
+                  }
+                }
+              }
+            );
+          }
+        }
+      }
+    }
+
+    private boolean accepts(String name, String path, long size) {
+      if (size > maxFileSize) return false;
+      return include.isEmpty() || matchesAny(include, name, path);
+    }
+
+    private void searchFile(String url, InputStream is) throws Exception {
+      files.incrementAndGet();
+      byte[] buffer = new byte[BLOCK_SIZE];
+      int filled = 0;
+      int line = 0;
+      boolean checked = false;
+
+      while (true) {
+        int read = is.read(buffer, filled, buffer.length - filled);
+        boolean eof = read == -1;
+        if (!eof) filled += read;
+
+        if (!checked && (eof || filled >= BINARY_CHECK_LENGTH)) {
+          if (isBinary(buffer, filled)) return;
+          checked = true;
+        }
+        if (!eof && filled < buffer.length) continue;
+
+        // Cut after the last newline, so lines are never split; '\n' can't
+        // occur inside a UTF-8 sequence, so neither are characters
+        int cut = eof ? filled : lastIndexOf(buffer, filled, (byte) '\n') + 1;
+        if (cut == 0 && !eof) {
+          if (buffer.length < MAX_BLOCK_SIZE) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            continue;
+          }
+          cut = filled;
+        }
+
+        line = searchBlock(url, buffer, cut, line);
+        if (eof || cancelled.get() || matches.get() >= maxResults) return;
+
+        System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+        filled -= cut;
+      }
+    }
+
+    /**
+     * Searches the first length bytes of data, whose first line is line of
+     * the file. Returns the line the next block starts on.
+     */
+    private int searchBlock(String url, byte[] data, int length, int line)
+      throws JSONException {
+      int nextLine = line + count(data, length, (byte) '\n');
+      if (literal != null && indexOf(data, length, literal) == -1) {
+        return nextLine;
+      }
+
+      String content = new String(data, 0, length, StandardCharsets.UTF_8);
+      Matcher matcher = pattern.matcher(content);
+      int lineStart = 0;
+      int scanned = 0;
+
+      while (matcher.find()) {
+        if (cancelled.get() || matches.get() >= maxResults) break;
+
+        int start = matcher.start();
+        int end = matcher.end();
+        if (start == end) {
+          // Empty regex matches would report every position
+          continue;
+        }
+
+        for (; scanned < start; scanned++) {
+          if (content.charAt(scanned) == '\n') {
+            line++;
+            lineStart = scanned + 1;
+          }
+        }
+
+        int endLine = line;
+        int endLineStart = lineStart;
+        for (int i = start; i < end; i++) {
+          if (content.charAt(i) == '\n') {
+            endLine++;
+            endLineStart = i + 1;
+          }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("url", url);
+        result.put("line", line);
+        result.put("column", start - lineStart);
+        result.put("endLine", endLine);
+        result.put("endColumn", end - endLineStart);
+        result.put("match", matcher.group());
+        result.put("preview", preview(content, lineStart, start, end));
+        add(result);
+      }
+      return nextLine;
+    }
+
+    private String preview(String content, int lineStart, int start, int end) {
+      int lineEnd = content.indexOf('\n', start);
+      if (lineEnd == -1 || lineEnd > end + PREVIEW_LENGTH) {
+        lineEnd = Math.min(content.length(), end + PREVIEW_LENGTH);
+      }
+      int from = Math.max(lineStart, start - PREVIEW_LENGTH / 2);
+      return content.substring(from, Math.max(lineEnd, from)).trim();
+    }
+
+    private boolean isBinary(byte[] data, int length) {
+      length = Math.min(length, BINARY_CHECK_LENGTH);
+      for (int i = 0; i < length; i++) {
+        if (data[i] == 0) return true;
+      }
+      return false;
+    }
+
+    private int count(byte[] data, int length, byte value) {
+      int count = 0;
+      for (int i = 0; i < length; i++) {
+        if (data[i] == value) count++;
+      }
+      return count;
+    }
+
+    private int lastIndexOf(byte[] data, int length, byte value) {
+      for (int i = length - 1; i >= 0; i--) {
+        if (data[i] == value) return i;
+      }
+      return -1;
+    }
+
+    private int indexOf(byte[] data, int length, byte[] needle) {
+      if (needle.length == 0) return 0;
+
+      byte first = needle[0];
+      int last = length - needle.length;
+      outer:
+      for (int i = 0; i <= last; i++) {
+        if (!equalsByte(data[i], first)) continue;
+        for (int j = 1; j < needle.length; j++) {
+          if (!equalsByte(data[i + j], needle[j])) continue outer;
+        }
+        return i;
+      }
+      return -1;
+    }
+
+    private boolean equalsByte(byte a, byte b) {
+      if (a == b) return true;
+      if (!ignoreCase) return false;
+      return toLowerAscii(a) == toLowerAscii(b);
+    }
+
+    private byte toLowerAscii(byte b) {
+      return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    private boolean isAscii(byte[] bytes) {
+      for (byte b : bytes) {
+        if (b < 0) return false;
+      }
+      return true;
+    }
+
+    private void addGlobs(List<Pattern> patterns, JSONArray globs) {
+      if (globs == null) return;
+      for (int i = 0; i < globs.length(); i++) {
+        patterns.add(Glob.compile(globs.optString(i)));
+      }
+    }
+
+    private boolean matchesAny(List<Pattern> patterns, String name, String path) {
+      for (Pattern pattern : patterns) {
+        if (
+          pattern.matcher(name).matches() || pattern.matcher(path).matches()
+        ) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private synchronized void add(JSONObject result) {
+      batch.put(result);
+      matches.incrementAndGet();
+      if (
+        batch.length() >= batchSize ||
+        System.currentTimeMillis() - lastFlush >= PROGRESS_INTERVAL
+      ) {
+        flush();
+      }
+    }
+
+    private synchronized void flush() {
+      lastFlush = System.currentTimeMillis();
+      if (batch.length() == 0) return;
+      PluginResult result = new PluginResult(PluginResult.Status.OK, batch);
+      result.setKeepCallback(true);
+      callback.sendPluginResult(result);
+      batch = new JSONArray();
+    }
+
+    private synchronized void finish() {
+      if (id != null) searches.remove(id);
+      flush();
+      try {
+        JSONObject end = new JSONObject();
+        end.put("files", files.get());
+        end.put("matches", matches.get());
+        end.put("truncated", matches.get() >= maxResults);
+        end.put("skipped", skipped.get());
+        callback.success(end);
+      } catch (JSONException e) {
+        callback.error(e.toString());
+      }
+    }
+  }
+
+  private interface Task {
+    void run() throws Exception;
+  }
+
+  /**
+   * Whether file is a symlink, without java.nio.file (API 26).
+   */
+  static boolean isSymbolicLink(File file) {
+    try {
+      return OsConstants.S_ISLNK(Os.lstat(file.getAbsolutePath()).st_mode);
+    } catch (ErrnoException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Builds a list entry from a cursor queried with LIST_PROJECTION, so callers
+   * don't need a stats round trip per entry for size and mtime.
+   */
+  private JSONObject listEntry(Cursor cursor, String src)
+    throws JSONException {
+    return listEntry(
+      src,
+      cursor.getString(0),
+      cursor.getString(1),
+      cursor.getString(2),
+      cursor.isNull(3) ? 0 : cursor.getLong(3),
+      cursor.isNull(4) ? 0 : cursor.getLong(4),
+      cursor.isNull(5) ? 0 : cursor.getInt(5)
+    );
+  }
+
+  private JSONObject listEntry(
+    String src,
+    String docId,
+    String name,
+    String mime,
+    long length,
+    long lastModified,
+    int flags
+  ) throws JSONException {
+    JSONObject fileData = new JSONObject();
+    boolean isDirectory = isDirectory(mime);
+    int writeFlag = isDirectory
+      ? Document.FLAG_DIR_SUPPORTS_CREATE
+      : Document.FLAG_SUPPORTS_WRITE;
+
+    fileData.put("name", name);
+    fileData.put("mime", mime);
+    fileData.put("isDirectory", isDirectory);
+    fileData.put("isFile", !isDirectory);
+    fileData.put("length", length);
+    fileData.put("lastModified", lastModified);
+    fileData.put("canWrite", (flags & writeFlag) != 0);
+    fileData.put("isVirtual", (flags & Document.FLAG_VIRTUAL_DOCUMENT) != 0);
+    fileData.put("flags", flags);
+    fileData.put("uri", src + SEPARATOR + docId); // TODO: Deprecate in future
+    fileData.put("url", src + SEPARATOR + docId);
+    return fileData;
+  }
+
+  private boolean isDirectory(String mimeType) {
+    return DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType);
+  }
+
+  private void getStats(String filename, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            String fileUri = formatUri(filename);
+
+            try {
+              // A file the direct path can't see, e.g. because access is
+              // denied, is looked up through SAF instead
+              File directFile = direct.toFile(Uri.parse(fileUri));
+              if (directFile != null && directFile.exists()) {
+                callback.success(getDirectStats(directFile, fileUri));
+                return;
+              }
+
+              DocumentFile file = getFile(fileUri);
+
+              JSONObject result = new JSONObject();
+              result.put("exists", file.exists());
+              result.put("canRead", file.canRead());
+              result.put("canWrite", canWrite(file.getUri()));
+              result.put("name", file.getName());
+              result.put("length", file.length());
+              result.put("type", file.getType());
+              result.put("isFile", file.isFile());
+              result.put("isDirectory", file.isDirectory());
+              result.put("isVirtual", file.isVirtual());
+              result.put("lastModified", file.lastModified());
+              result.put("url", file.getUri().toString());
+
+              callback.success(result);
+            } catch (Exception e) {
+              callback.error(e.getMessage());
+            }
+          }
+        }
+      );
+  }
+
+  /**
+   * Stats every url with a single projection query per document, answering
+   * in one callback. Results are in the order of the urls; documents that
+   * can't be queried are reported with exists set to false.
+   */
+  private void statMany(JSONArray urls, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              JSONArray result = new JSONArray();
+              for (int i = 0; urls != null && i < urls.length(); i++) {
+                result.put(statDocument(formatUri(urls.getString(i))));
+              }
+              callback.success(result);
+            } catch (Exception e) {
+              callback.error(e.toString());
+            }
+          }
+        }
+      );
+  }
+
+  private void existsMany(JSONArray urls, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              JSONArray result = new JSONArray();
+              for (int i = 0; urls != null && i < urls.length(); i++) {
+                Uri uri = Uri.parse(formatUri(urls.getString(i)));
+                File file = toLocalFile(uri);
+                result.put(
+                  file != null ? file.exists() : documentExists(uri)
+                );
+              }
+              callback.success(result);
+            } catch (Exception e) {
+              callback.error(e.toString());
+            }
+          }
+        }
+      );
+  }
+
+  private File toLocalFile(Uri uri) {
+    if ("file".equals(uri.getScheme())) return new File(uri.getPath());
+    return direct.toFile(uri);
+  }
+
+  /**
+   * Same fields as getStats, derived from one query the way DocumentFile
+   * would compute them, instead of one query per property.
+   */
+  private JSONObject statDocument(String fileUri) throws JSONException {
+    Uri uri = Uri.parse(fileUri);
+    File file = toLocalFile(uri);
+    if (file != null) return getDirectStats(file, fileUri);
+
+    JSONObject result = new JSONObject();
+    result.put("url", fileUri);
+
+    try (
+      Cursor cursor = context
+        .getContentResolver()
+        .query(uri, LIST_PROJECTION, null, null, null)
+    ) {
+      if (cursor == null || !cursor.moveToFirst()) {
+        result.put("exists", false);
+        return result;
+      }
+
+      String mime = cursor.getString(2);
+      int flags = cursor.isNull(5) ? 0 : cursor.getInt(5);
+      boolean isDirectory = isDirectory(mime);
+      boolean hasMime = !TextUtils.isEmpty(mime);
+      boolean canWrite =
+        hasPermission(uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION) &&
+        (
+          (flags & Document.FLAG_SUPPORTS_DELETE) != 0 ||
+          (isDirectory && (flags & Document.FLAG_DIR_SUPPORTS_CREATE) != 0) ||
+          (hasMime && (flags & Document.FLAG_SUPPORTS_WRITE) != 0)
+        );
+
+      result.put("exists", true);
+      result.put(
+        "canRead",
+        hasMime && hasPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION)
+      );
+      result.put("canWrite", canWrite);
+      result.put("name", cursor.getString(1));
+      result.put("length", cursor.isNull(3) ? 0 : cursor.getLong(3));
+      result.put("type", isDirectory ? null : mime);
+      result.put("isFile", hasMime && !isDirectory);
+      result.put("isDirectory", isDirectory);
+      result.put("isVirtual", (flags & Document.FLAG_VIRTUAL_DOCUMENT) != 0);
+      result.put("lastModified", cursor.isNull(4) ? 0 : cursor.getLong(4));
+    } catch (Exception e) {
+      result.put("exists", false);
+    }
+
+    return result;
+  }
+
+  private boolean hasPermission(Uri uri, int mode) {
+    return (
+      context.checkCallingOrSelfUriPermission(uri, mode) ==
+      PackageManager.PERMISSION_GRANTED
+    );
+  }
+
+  private JSONObject getDirectStats(File file, String fileUri)
+    throws JSONException {
+    JSONObject result = new JSONObject();
+    boolean exists;
+    boolean isDirectory;
+    boolean isFile;
+    long length;
+    long lastModified;
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      BasicFileAttributes attrs = null;
+      try {
+        attrs =
+          Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      } catch (IOException e) {
+        // Reported as not existing, like DocumentFile does
+      }
+      exists = attrs != null;
+      isDirectory = exists && attrs.isDirectory();
+      isFile = exists && attrs.isRegularFile();
+      length = exists ? attrs.size() : 0;
+      lastModified = exists ? attrs.lastModifiedTime().toMillis() : 0;
+    } else {
+      // file:// urls get here on API 24-25, without java.nio.file
+      exists = file.exists();
+      isDirectory = file.isDirectory();
+      isFile = file.isFile();
+      length = file.length();
+      lastModified = file.lastModified();
+    }
+
+    result.put("exists", exists);
+    result.put("canRead", exists && file.canRead());
+    result.put("canWrite", exists && file.canWrite());
+    result.put("name", file.getName());
+    result.put("length", exists && !isDirectory ? length : 0);
+    result.put(
+      "type",
+      exists && !isDirectory ? DirectAccess.getMimeType(file, false) : null
+    );
+    result.put("isFile", isFile);
+    result.put("isDirectory", isDirectory);
+    result.put("isVirtual", false);
+    result.put("lastModified", lastModified);
+    result.put("url", fileUri);
+    return result;
+  }
+
+  /**
+   * Times listing (directories) or reading (files) the same document through
+   * SAF and through the direct path, averaged over the given iterations.
+   * "direct" is null when the document has no direct mapping.
+   */
+  private void benchmark(
+    String fileUri,
+    int iterations,
+    CallbackContext callback
+  ) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              Uri uri = Uri.parse(fileUri);
+              if (!DocumentsContract.isDocumentUri(context, uri)) {
+                uri =
+                  DocumentsContract.buildDocumentUriUsingTree(
+                    uri,
+                    DocumentsContract.getTreeDocumentId(uri)
+                  );
+              }
+
+              ContentResolver resolver = context.getContentResolver();
+              DocumentInfo info = DocumentInfo.query(resolver, uri);
+              if (info == null) {
+                callback.error("File not found");
+                return;
+              }
+
+              boolean isDirectory = info.isDirectory();
+              File file = direct.toFile(uri);
+              String docId = DocumentsContract.getDocumentId(uri);
+              long safTime = 0;
+              long directTime = 0;
+              long size = 0;
+
+              for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                size = isDirectory
+                  ? benchmarkSafList(uri, docId)
+                  : benchmarkSafRead(uri);
+                safTime += System.nanoTime() - start;
+
+                if (file == null) continue;
+
+                start = System.nanoTime();
+                if (isDirectory) {
+                  listDirect(file, fileUri, docId, new ListOptions(null));
+                } else {
+                  Files.readAllBytes(file.toPath());
+                }
+                directTime += System.nanoTime() - start;
+              }
+
+              JSONObject result = new JSONObject();
+              result.put("kind", isDirectory ? "list" : "read");
+              result.put("iterations", iterations);
+              result.put(isDirectory ? "entries" : "bytes", size);
+              result.put("saf", safTime / 1e6 / iterations);
+              result.put(
+                "direct",
+                file == null ? JSONObject.NULL : directTime / 1e6 / iterations
+              );
+              callback.success(result);
+            } catch (Exception e) {
+              callback.error(e.toString());
+            }
+          }
+        }
+      );
+  }
+
+  private long benchmarkSafList(Uri uri, String docId) throws JSONException {
+    Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(
+      uri,
+      docId
+    );
+    long count = 0;
+    try (
+      Cursor cursor = context
+        .getContentResolver()
+        .query(childrenUri, LIST_PROJECTION, null, null, null)
+    ) {
+      while (cursor != null && cursor.moveToNext()) {
+        listEntry(cursor, uri.toString());
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private long benchmarkSafRead(Uri uri) throws IOException {
+    try (InputStream is = context.getContentResolver().openInputStream(uri)) {
+      if (is == null) throw new FileNotFoundException(uri.toString());
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      return IOUtils.copyLarge(is, os, new byte[DEFAULT_CHUNK_SIZE]);
+    }
+  }
+
+  private Uri getUri(String src, String docId) {
+    Uri srcUri = Uri.parse(src);
+    String srcId = DocumentsContract.getTreeDocumentId(srcUri);
+    srcUri = DocumentsContract.buildDocumentUriUsingTree(srcUri, srcId);
+    return DocumentsContract.buildDocumentUriUsingTree(srcUri, docId);
+  }
+
+  private void exists(String path, CallbackContext callback) {
+    // Not existing to the direct path may still mean SAF can see it
+    File directFile = direct.toFile(Uri.parse(path));
+    if (directFile != null && directFile.exists()) {
+      callback.success("TRUE");
+      return;
+    }
+
+    DocumentFile file = DocumentFile.fromSingleUri(context, Uri.parse(path));
+
+    if (file == null) {
+      callback.error("Unable to get file");
+    } else {
+      if (file.exists()) {
+        callback.success("TRUE");
+      } else {
+        callback.success("FALSE");
+      }
+    }
+  }
+
+  private void error(String err, CallbackContext callback) {
+    callback.error("ERROR: " + err);
+  }
+
+  private void getPath(String uriString, String src, CallbackContext callback) {
+    try {
+      DocumentFile file = geRelativeDocumentFile(uriString, src);
+
+      if (file == null) {
+        callback.error("Unable to get file");
+      } else {
+        Uri uri = file.getUri();
+        String path = uri.getPath();
+
+        if (path != null) {
+          callback.success(uri.toString());
+        } else {
+          callback.error("Unable to get path");
+        }
+      }
+    } catch (Exception e) {
+      callback.error(e.getMessage());
+    }
+  }
+
+  private DocumentFile geRelativeDocumentFile(String uri, String filename) {
+    Uri treeUri = Uri.parse(uri);
+    DocumentFile file = DocumentFile.fromTreeUri(context, treeUri);
+    if (!canWrite(file.getUri())) {
+      throw new RuntimeException("Cannot write file");
+    }
+
+    String docId = resolveRelativeDocumentId(treeUri, filename, true);
+    if (docId == null) return null;
+
+    Uri docUri = DocumentsContract.buildDocumentUriUsingTree(treeUri, docId);
+    if (!documentExists(docUri)) {
+      // Something on the cached path changed behind our back, resolve again
+      // from the provider.
+      documentIds.invalidate(docId);
+      docId = resolveRelativeDocumentId(treeUri, filename, false);
+      if (docId == null) return null;
+      docUri = DocumentsContract.buildDocumentUriUsingTree(treeUri, docId);
+    }
+
+    return DocumentFile.fromSingleUri(context, docUri);
+  }
+
+  /**
+   * Resolves a path relative to the tree root one segment at a time. Each
+   * segment is looked up in the document id cache, and on a miss the parent
+   * is listed once, which caches all of its children.
+   */
+  private String resolveRelativeDocumentId(
+    Uri treeUri,
+    String path,
+    boolean useCache
+  ) {
+    String authority = treeUri.getAuthority();
+    String docId = DocumentsContract.getTreeDocumentId(treeUri);
+
+    for (String name : path.split("/")) {
+      if (name.equals("")) continue;
+
+      String childId = useCache
+        ? documentIds.get(authority, docId, name)
+        : null;
+      if (childId == null) {
+        childId = findChildDocumentId(treeUri, docId, name);
+      }
+      if (childId == null) return null;
+      docId = childId;
+    }
+
+    return docId;
+  }
+
+  private String findChildDocumentId(
+    Uri treeUri,
+    String parentId,
+    String name
+  ) {
+    Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(
+      treeUri,
+      parentId
+    );
+    String result = null;
+
+    try (
+      Cursor cursor = context
+        .getContentResolver()
+        .query(
+          childrenUri,
+          new String[] {
+            Document.COLUMN_DOCUMENT_ID,
+            Document.COLUMN_DISPLAY_NAME,
+          },
+          null,
+          null,
+          null
+        )
+    ) {
+      if (cursor == null) return null;
+
+      while (cursor.moveToNext()) {
+        String childId = cursor.getString(0);
+        String childName = cursor.getString(1);
+        documentIds.put(treeUri.getAuthority(), parentId, childName, childId);
+        if (name.equals(childName)) result = childId;
+      }
+    }
+
+    return result;
+  }
+
+  private boolean documentExists(Uri uri) {
+    try (
+      Cursor cursor = context
+        .getContentResolver()
+        .query(
+          uri,
+          new String[] { Document.COLUMN_DOCUMENT_ID },
+          null,
+          null,
+          null
+        )
+    ) {
+      return cursor != null && cursor.getCount() > 0;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private DocumentFile getFile(Uri uri) {
+    return getFile(uri.toString());
+  }
+
+  private DocumentFile getFile(String filePath) {
+    Uri fileUri = Uri.parse(filePath);
+    DocumentFile documentFile = null;
+
+    if (filePath.matches("file:///(.*)")) {
+      File file = new File(fileUri.getPath());
+      documentFile = DocumentFile.fromFile(file);
+    } else {
+      documentFile = DocumentFile.fromSingleUri(context, fileUri);
+    }
+
+    return documentFile;
+  }
+
+  private void takePermission(Uri uri) {
+    contentResolver = context.getContentResolver();
+    contentResolver.takePersistableUriPermission(
+      uri,
+      Intent.FLAG_GRANT_WRITE_URI_PERMISSION |
+      Intent.FLAG_GRANT_READ_URI_PERMISSION
+    );
+  }
+
+  public boolean canWrite(Uri uri) {
+    boolean canWrite = false;
+    try {
+      // if the file is not writable this throws a SecurityException
+      OutputStream os = context
+        .getContentResolver()
+        .openOutputStream(uri, "wa");
+
+      if (os == null) return false;
 
       os.close(); // we don't actually want to write anything, so we close immediately
       canWrite = true;
@@ -1020,37 +2997,651 @@ public class SDcard extends CordovaPlugin {
   }
 }
 
-class MyFileObserver extends FileObserver {
+/**
+ * Maps documents of the external storage provider to real paths on primary
+ * storage when the app has all files access, so reads, writes and listings
+ * can skip the ContentResolver. Anything else returns null and goes through
+ * SAF as before.
+ */
+class DirectAccess {
 
-  private CallbackContext listener;
-  private static final int mask =
-    (FileObserver.DELETE_SELF | FileObserver.MODIFY | FileObserver.MOVE_SELF);
+  static final String AUTHORITY = "com.android.externalstorage.documents";
+  private static final String PRIMARY_VOLUME = "primary";
+  private final Context context;
 
-  public MyFileObserver(String path, CallbackContext listener) {
-    super(path, mask);
-    this.listener = listener;
-    Log.d("MyFileObserver", "MyFileObserver: " + path);
+  DirectAccess(Context context) {
+    this.context = context;
+  }
+
+  boolean isEnabled() {
+    int sdk = Build.VERSION.SDK_INT;
+    if (sdk >= 30) return Environment.isExternalStorageManager();
+
+    // Scoped storage can't be opted out of on Android 10 reliably
+    return (
+      sdk >= 26 &&
+      sdk < 29 &&
+      context.checkSelfPermission(
+        android.Manifest.permission.WRITE_EXTERNAL_STORAGE
+      ) ==
+      PackageManager.PERMISSION_GRANTED
+    );
+  }
+
+  File toFile(Uri uri) {
+    if (!AUTHORITY.equals(uri.getAuthority()) || !isEnabled()) return null;
+
+    try {
+      String docId = DocumentsContract.isDocumentUri(context, uri)
+        ? DocumentsContract.getDocumentId(uri)
+        : DocumentsContract.getTreeDocumentId(uri);
+      return toFile(docId);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  File toFile(String docId) {
+    int colon = docId.indexOf(':');
+    if (colon == -1) return null;
+    if (!PRIMARY_VOLUME.equals(docId.substring(0, colon))) return null;
+
+    File root = Environment.getExternalStorageDirectory();
+    String path = docId.substring(colon + 1);
+    return path.isEmpty() ? root : new File(root, path);
+  }
+
+  static String childId(String parentId, String name) {
+    return parentId.endsWith(":") ? parentId + name : parentId + "/" + name;
+  }
+
+  /**
+   * Same mime type and flags ExternalStorageProvider would report, so
+   * direct listings are indistinguishable from SAF ones.
+   */
+  static String getMimeType(File file, boolean isDirectory) {
+    if (isDirectory) return Document.MIME_TYPE_DIR;
+
+    String extension = FilenameUtils.getExtension(file.getName());
+    String mime = MimeTypeMap
+      .getSingleton()
+      .getMimeTypeFromExtension(extension.toLowerCase());
+    return mime == null ? "application/octet-stream" : mime;
+  }
+
+  static int getFlags(File file, boolean isDirectory) {
+    if (!file.canWrite()) return 0;
+
+    int flags =
+      Document.FLAG_SUPPORTS_DELETE |
+      Document.FLAG_SUPPORTS_RENAME |
+      Document.FLAG_SUPPORTS_MOVE;
+    return (
+      flags |
+      (isDirectory
+          ? Document.FLAG_DIR_SUPPORTS_CREATE
+          : Document.FLAG_SUPPORTS_WRITE)
+    );
+  }
+}
+
+/**
+ * Name, type, size and flags of a document, read in a single query.
+ */
+class DocumentInfo {
+
+  static final String[] PROJECTION = new String[] {
+    Document.COLUMN_DOCUMENT_ID,
+    Document.COLUMN_DISPLAY_NAME,
+    Document.COLUMN_MIME_TYPE,
+    Document.COLUMN_SIZE,
+    Document.COLUMN_FLAGS,
+  };
+
+  final String name;
+  final String mime;
+  final long size;
+  final int flags;
+
+  private DocumentInfo(String name, String mime, long size, int flags) {
+    this.name = name;
+    this.mime = mime;
+    this.size = size;
+    this.flags = flags;
+  }
+
+  static DocumentInfo from(Cursor cursor) {
+    return new DocumentInfo(
+      cursor.getString(1),
+      cursor.getString(2),
+      cursor.isNull(3) ? 0 : cursor.getLong(3),
+      cursor.isNull(4) ? 0 : cursor.getInt(4)
+    );
+  }
+
+  static DocumentInfo query(ContentResolver resolver, Uri uri) {
+    try (Cursor cursor = resolver.query(uri, PROJECTION, null, null, null)) {
+      if (cursor == null || !cursor.moveToFirst()) return null;
+      return from(cursor);
+    }
+  }
+
+  boolean isDirectory() {
+    return Document.MIME_TYPE_DIR.equals(mime);
+  }
+
+  boolean hasFlag(int flag) {
+    return (flags & flag) != 0;
+  }
+}
+
+/**
+ * Bounded LRU cache of (authority, parent document id, display name) to
+ * child document id, filled by directory listings and invalidated when a
+ * document is renamed, moved or deleted.
+ */
+class DocumentIdCache {
+
+  private static final int MAX_ENTRIES = 10000;
+  private static final char SEP = '\u0000';
+
+  private final LinkedHashMap<String, String> entries =
+    new LinkedHashMap<String, String>(256, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > MAX_ENTRIES;
+      }
+    };
+
+  synchronized String get(String authority, String parentId, String name) {
+    return entries.get(key(authority, parentId, name));
+  }
+
+  synchronized void put(
+    String authority,
+    String parentId,
+    String name,
+    String docId
+  ) {
+    if (name == null || docId == null) return;
+    entries.put(key(authority, parentId, name), docId);
+  }
+
+  /**
+   * Drops the entry pointing to docId and the entries of its children.
+   * Deeper descendants become unreachable and age out of the LRU.
+   */
+  synchronized void invalidate(String docId) {
+    String parent = SEP + docId + SEP;
+    Iterator<Map.Entry<String, String>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, String> entry = it.next();
+      if (docId.equals(entry.getValue()) || entry.getKey().contains(parent)) {
+        it.remove();
+      }
+    }
+  }
+
+  private static String key(String authority, String parentId, String name) {
+    return authority + SEP + parentId + SEP + name;
+  }
+}
+
+/**
+ * Native filtering and sorting for directory listings.
+ */
+class ListOptions {
+
+  private final String sortBy;
+  private final boolean reverse;
+  private final boolean dirsFirst;
+  private final boolean showHidden;
+  private final Pattern pattern;
+
+  ListOptions(JSONObject options) {
+    if (options == null) options = new JSONObject();
+    sortBy = options.optString("sortBy", null);
+    reverse = options.optBoolean("reverse", false);
+    dirsFirst = options.optBoolean("dirsFirst", false);
+    showHidden = options.optBoolean("showHidden", true);
+    String glob = options.optString("pattern", null);
+    pattern = glob == null ? null : Glob.compile(glob);
+  }
+
+  boolean accepts(String name) {
+    if (name == null) return false;
+    if (!showHidden && name.startsWith(".")) return false;
+    return pattern == null || pattern.matcher(name).matches();
+  }
+
+  void sort(List<JSONObject> entries) {
+    Comparator<JSONObject> comparator = null;
+
+    if ("name".equals(sortBy)) {
+      comparator = (a, b) ->
+        a.optString("name").compareToIgnoreCase(b.optString("name"));
+    } else if ("size".equals(sortBy)) {
+      comparator = (a, b) ->
+        Long.compare(a.optLong("length"), b.optLong("length"));
+    } else if ("modified".equals(sortBy)) {
+      comparator = (a, b) ->
+        Long.compare(a.optLong("lastModified"), b.optLong("lastModified"));
+    }
+
+    if (comparator != null && reverse) {
+      comparator = comparator.reversed();
+    }
+
+    if (dirsFirst) {
+      Comparator<JSONObject> dirs = (a, b) ->
+        Boolean.compare(
+          b.optBoolean("isDirectory"),
+          a.optBoolean("isDirectory")
+        );
+      comparator = comparator == null ? dirs : dirs.thenComparing(comparator);
+    }
+
+    if (comparator != null) {
+      Collections.sort(entries, comparator);
+    }
+  }
+}
+
+/**
+ * Minimal glob support: '*' matches within a path segment, '**' across
+ * segments and '?' a single character.
+ */
+class Glob {
+
+  static Pattern compile(String glob) {
+    StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (c == '*') {
+        if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+          regex.append(".*");
+          i++;
+        } else {
+          regex.append("[^/]*");
+        }
+      } else if (c == '?') {
+        regex.append("[^/]");
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+  }
+}
+
+/**
+ * A file being written in chunks. Chunks are written straight to the
+ * destination stream, or to a temporary sibling that replaces the target on
+ * commit when the document is a plain file.
+ */
+class WriteSession {
+
+  private final OutputStream out;
+  private final Writer writer;
+  private final File temp;
+  private final File target;
+  private final Executor pool;
+  private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+  // Guarded by tasks
+  private boolean draining = false;
+  private long lastUsed = System.currentTimeMillis();
+  private volatile boolean closed = false;
+
+  WriteSession(
+    OutputStream out,
+    Charset charset,
+    File temp,
+    File target,
+    Executor pool
+  ) {
+    this.out = new BufferedOutputStream(out, 64 * 1024);
+    this.writer = new OutputStreamWriter(this.out, charset);
+    this.temp = temp;
+    this.target = target;
+    this.pool = pool;
+  }
+
+  /**
+   * Queues an operation behind the ones already submitted for this session.
+   * The queue is drained by one task at a time on the shared pool, so an
+   * idle session holds no thread.
+   */
+  void execute(Runnable task, CallbackContext callback) {
+    synchronized (tasks) {
+      if (closed) {
+        callback.error("Write session closed");
+        return;
+      }
+      tasks.add(task);
+      lastUsed = System.currentTimeMillis();
+      if (draining) return;
+      draining = true;
+    }
+
+    try {
+      pool.execute(
+        new Runnable() {
+          public void run() {
+            drain();
+          }
+        }
+      );
+    } catch (RejectedExecutionException e) {
+      synchronized (tasks) {
+        tasks.clear();
+        draining = false;
+      }
+      callback.error("Write session closed");
+    }
+  }
+
+  boolean isIdle(long timeout) {
+    synchronized (tasks) {
+      return !draining && System.currentTimeMillis() - lastUsed > timeout;
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      Runnable task;
+      synchronized (tasks) {
+        task = tasks.poll();
+        if (task == null) {
+          draining = false;
+          lastUsed = System.currentTimeMillis();
+          return;
+        }
+      }
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        Log.e("SDcard", "Write session task failed", e);
+      }
+    }
+  }
+
+  synchronized void write(String content) throws IOException {
+    ensureOpen();
+    writer.write(content);
+  }
+
+  synchronized void write(byte[] bytes) throws IOException {
+    ensureOpen();
+    // Flush pending text so text and binary chunks keep their order
+    writer.flush();
+    out.write(bytes);
+  }
+
+  synchronized void commit() throws IOException {
+    ensureOpen();
+    closed = true;
+    try {
+      writer.close();
+    } catch (IOException e) {
+      if (temp != null) temp.delete();
+      throw e;
+    }
+    if (temp != null && !temp.renameTo(target)) {
+      temp.delete();
+      throw new IOException("Unable to replace " + target.getAbsolutePath());
+    }
+  }
+
+  synchronized void abort() {
+    closed = true;
+    try {
+      writer.close();
+    } catch (IOException ignored) {}
+    if (temp != null) {
+      temp.delete();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) throw new IOException("Write session closed");
   }
+}
 
-  public MyFileObserver(File file, CallbackContext listener) {
-    super(file, mask);
+/**
+ * Watches a file, or a directory and optionally everything below it, and
+ * reports changes as one batch of {path, kind} per debounce window. Each
+ * directory gets its own observer since an observer created with a list of
+ * files doesn't say which of them an event belongs to; all observers share
+ * FileObserver's single inotify thread anyway.
+ */
+class FileWatcher {
+
+  private static final int FILE_MASK =
+    FileObserver.DELETE_SELF |
+    FileObserver.MODIFY |
+    FileObserver.MOVE_SELF;
+  private static final int DIR_MASK =
+    FILE_MASK |
+    FileObserver.CREATE |
+    FileObserver.DELETE |
+    FileObserver.MOVED_FROM |
+    FileObserver.MOVED_TO;
+
+  private final File root;
+  private final boolean recursive;
+  private final long debounce;
+  private final List<Pattern> ignore = new ArrayList<Pattern>();
+  private final ScheduledExecutorService scheduler;
+  private final CallbackContext listener;
+  private final Map<String, Observer> observers = new ConcurrentHashMap<>();
+  private final Map<String, String> pending = new LinkedHashMap<>();
+  private ScheduledFuture<?> scheduledFlush;
+  private volatile boolean stopped = false;
+
+  FileWatcher(
+    File root,
+    JSONObject options,
+    ScheduledExecutorService scheduler,
+    CallbackContext listener
+  ) {
+    if (options == null) options = new JSONObject();
+    this.root = root;
+    this.recursive = options.optBoolean("recursive", false);
+    this.debounce = options.optLong("debounce", 100);
+    this.scheduler = scheduler;
     this.listener = listener;
-    Log.d("MyFileObserver", "MyFileObserver: " + file.getAbsolutePath());
+
+    JSONArray globs = options.optJSONArray("ignore");
+    if (globs != null) {
+      for (int i = 0; i < globs.length(); i++) {
+        ignore.add(Glob.compile(globs.optString(i)));
+      }
+    }
   }
 
-  @Override
-  public void onEvent(int event, String path) {
-    Log.d("MyFileObserver", "onEvent: " + event);
-    PluginResult result = new PluginResult(PluginResult.Status.OK);
+  void start() {
+    if (root.isDirectory()) {
+      watchTree(root);
+    } else {
+      watch(root, FILE_MASK);
+    }
+  }
+
+  void stop() {
+    synchronized (this) {
+      stopped = true;
+      pending.clear();
+      if (scheduledFlush != null) scheduledFlush.cancel(false);
+    }
+
+    for (Observer observer : observers.values()) {
+      observer.stopWatching();
+    }
+    observers.clear();
+  }
+
+  private void watchTree(File dir) {
+    watch(dir, DIR_MASK);
+    if (!recursive) return;
+
+    File[] children = dir.listFiles();
+    if (children == null) return;
+
+    for (File child : children) {
+      if (
+        child.isDirectory() &&
+        !SDcard.isSymbolicLink(child) &&
+        !isIgnored(child)
+      ) {
+        watchTree(child);
+      }
+    }
+  }
+
+  private void watch(File file, int mask) {
+    String path = file.getAbsolutePath();
+    if (stopped || observers.containsKey(path)) return;
+
+    Observer observer = Build.VERSION.SDK_INT >= 29
+      ? new Observer(file, mask)
+      : new Observer(path, file, mask);
+    observers.put(path, observer);
+    observer.startWatching();
+  }
+
+  private void unwatch(File file) {
+    Observer observer = observers.remove(file.getAbsolutePath());
+    if (observer != null) observer.stopWatching();
+  }
+
+  private boolean isIgnored(File file) {
+    String name = file.getName();
+    String path = root.toURI().relativize(file.toURI()).getPath();
+    for (Pattern pattern : ignore) {
+      if (pattern.matcher(name).matches() || pattern.matcher(path).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void onEvent(File dir, int event, String name) {
+    // IN_IGNORED and the other flag-only events carry no change
+    event &= FileObserver.ALL_EVENTS;
+    if (event == 0) return;
+
+    File file = name == null ? dir : new File(dir, name);
+    if (file != root && isIgnored(file)) return;
+
+    String kind;
+    switch (event) {
+      case FileObserver.CREATE:
+      case FileObserver.MOVED_TO:
+        kind = "create";
+        if (
+          recursive && file.isDirectory() && !SDcard.isSymbolicLink(file)
+        ) {
+          watchTree(file);
+        }
+        break;
+      case FileObserver.DELETE:
+      case FileObserver.MOVED_FROM:
+        kind = "delete";
+        break;
+      case FileObserver.DELETE_SELF:
+      case FileObserver.MOVE_SELF:
+        kind = "delete";
+        if (dir != root) unwatch(dir);
+        break;
+      default:
+        kind = "modify";
+    }
+
+    queue(file.getAbsolutePath(), kind);
+  }
+
+  private synchronized void queue(String path, String kind) {
+    if (stopped) return;
+
+    String merged = merge(pending.get(path), kind);
+    if (merged == null) {
+      pending.remove(path);
+    } else {
+      pending.put(path, merged);
+    }
+
+    if (scheduledFlush == null) {
+      scheduledFlush =
+        scheduler.schedule(
+          new Runnable() {
+            public void run() {
+              flush();
+            }
+          },
+          debounce,
+          TimeUnit.MILLISECONDS
+        );
+    }
+  }
+
+  /**
+   * Folds two events on the same path into what actually changed, e.g. a
+   * file created and deleted within the window is not reported at all.
+   */
+  private static String merge(String previous, String kind) {
+    if (previous == null) return kind;
+    if (previous.equals("create")) {
+      return kind.equals("delete") ? null : "create";
+    }
+    if (previous.equals("delete")) {
+      // Writes to an open descriptor can still arrive after the unlink
+      return kind.equals("create") ? "modify" : "delete";
+    }
+    return kind;
+  }
+
+  private void flush() {
+    JSONArray changes = new JSONArray();
+
+    synchronized (this) {
+      scheduledFlush = null;
+      if (stopped || pending.isEmpty()) return;
+
+      try {
+        for (Map.Entry<String, String> change : pending.entrySet()) {
+          JSONObject item = new JSONObject();
+          item.put("path", change.getKey());
+          item.put("kind", change.getValue());
+          changes.put(item);
+        }
+      } catch (JSONException e) {
+        Log.e("FileWatcher", "flush", e);
+      }
+      pending.clear();
+    }
+
+    PluginResult result = new PluginResult(PluginResult.Status.OK, changes);
     result.setKeepCallback(true);
     listener.sendPluginResult(result);
   }
 
-  public void startObserving() {
-    startWatching();
-  }
+  private class Observer extends FileObserver {
+
+    private final File dir;
+
+    Observer(File dir, int mask) {
+      super(dir, mask);
+      this.dir = dir;
+    }
+
+    Observer(String path, File dir, int mask) {
+      super(path, mask);
+      this.dir = dir;
+    }
 
-  public void stopObserving() {
-    stopWatching();
+    @Override
+    public void onEvent(int event, String path) {
+      FileWatcher.this.onEvent(dir, event, path);
+    }
   }
 }
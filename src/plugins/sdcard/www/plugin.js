@@ -1,6 +1,24 @@
+function transfer(action, srcPathname, destPathname, onSuccess, onFail, onProgress) {
+  if (!onProgress) {
+    cordova.exec(onSuccess, onFail, 'SDcard', action, [srcPathname, destPathname]);
+    return;
+  }
+
+  var id = parseInt(Date.now() + Math.random() * 1000000) + '';
+  cordova.exec(function (res) {
+    if (typeof res === 'object') return onProgress(res);
+    onSuccess(res);
+  }, onFail, 'SDcard', action, [srcPathname, destPathname, id]);
+  return {
+    cancel: function () {
+      cordova.exec(null, null, 'SDcard', 'cancel transfer', [id]);
+    }
+  };
+}
+
 module.exports = {
-  copy: function (srcPathname, destPathname, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'SDcard', 'copy', [srcPathname, destPathname]);
+  copy: function (srcPathname, destPathname, onSuccess, onFail, onProgress) {
+    return transfer('copy', srcPathname, destPathname, onSuccess, onFail, onProgress);
   },
   createDir: function (pathname, dir, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'SDcard', 'create directory', [pathname, dir]);
@@ -26,11 +44,29 @@ module.exports = {
   listStorages: function (onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'SDcard', 'list volumes', []);
   },
-  listDir: function (src, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'SDcard', 'list directory', [src]);
+  listDir: function (src, onSuccess, onFail, options) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'list directory', options ? [src, options] : [src]);
   },
-  move: function (srcPathname, destPathname, onSuccess, onFail) {
-    cordova.exec(onSuccess, onFail, 'SDcard', 'move', [srcPathname, destPathname]);
+  walk: function (src, options, onBatch, onEnd, onFail) {
+    cordova.exec(function (res) {
+      if (Array.isArray(res)) return onBatch(res);
+      onEnd(res);
+    }, onFail, 'SDcard', 'walk', [src, options || {}]);
+  },
+  search: function (src, query, options, onBatch, onEnd, onFail) {
+    var id = parseInt(Date.now() + Math.random() * 1000000) + '';
+    cordova.exec(function (res) {
+      if (Array.isArray(res)) return onBatch(res);
+      onEnd(res);
+    }, onFail, 'SDcard', 'search', [src, query, options || {}, id]);
+    return {
+      cancel: function () {
+        cordova.exec(null, null, 'SDcard', 'cancel search', [id]);
+      }
+    };
+  },
+  move: function (srcPathname, destPathname, onSuccess, onFail, onProgress) {
+    return transfer('move', srcPathname, destPathname, onSuccess, onFail, onProgress);
   },
   openDocumentFile: function (onSuccess, onFail, mimeType) {
     cordova.exec(onSuccess, onFail, 'SDcard', 'open document file', mimeType ? [mimeType] : []);
@@ -44,16 +80,48 @@ module.exports = {
   read: function (filename, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'SDcard', 'read', [filename]);
   },
+  readRange: function (filename, offset, length, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'read range', [filename, offset, length]);
+  },
+  readStream: function (filename, chunkSize, onChunk, onEnd, onFail) {
+    cordova.exec(function (res) {
+      if (res instanceof ArrayBuffer) return onChunk(res);
+      onEnd(res);
+    }, onFail, 'SDcard', 'read stream', [filename, chunkSize]);
+  },
   write: function (filename, content, onSuccess, onFail) {
     var _isBuffer = content instanceof ArrayBuffer;
     cordova.exec(onSuccess, onFail, 'SDcard', 'write', [filename, content, _isBuffer]);
   },
+  openWrite: function (filename, options, onSuccess, onFail) {
+    options = options || {};
+    cordova.exec(onSuccess, onFail, 'SDcard', 'write open', [filename, options.charset || 'UTF-8', !!options.atomic]);
+  },
+  appendWrite: function (id, content, onSuccess, onFail) {
+    var _isBuffer = content instanceof ArrayBuffer;
+    cordova.exec(onSuccess, onFail, 'SDcard', 'write append', [id, content, _isBuffer]);
+  },
+  commitWrite: function (id, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'write commit', [id]);
+  },
+  abortWrite: function (id, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'write abort', [id]);
+  },
   stats: function (filename, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'SDcard', 'stats', [filename]);
   },
-  watchFile: function (filename, listener, onFail) {
+  statMany: function (filenames, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'stats many', [filenames]);
+  },
+  existsMany: function (filenames, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'exists many', [filenames]);
+  },
+  benchmark: function (filename, iterations, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'SDcard', 'benchmark', [filename, iterations || 5]);
+  },
+  watchFile: function (filename, listener, onFail, options) {
     var id = parseInt(Date.now() + Math.random() * 1000000) + '';
-    cordova.exec(listener, onFail, 'SDcard', 'watch file', [filename, id]);
+    cordova.exec(listener, onFail, 'SDcard', 'watch file', [filename, id, options || {}]);
     return {
       unwatch: function () {
         cordova.exec(null, null, 'SDcard', 'unwatch file', [id]);
@@ -17,6 +17,20 @@ interface ExecResult{
   result: String;
 }
 
+interface WatchEvent {
+  path: String;
+  kind: 'create' | 'modify' | 'delete';
+  exists: boolean;
+  length: Number;
+  lastModified: Number;
+}
+
+interface PortForward {
+  port: Number;
+  url: String;
+  remote?: String;
+}
+
 interface Sftp {
   /**
    * Executes command on ssh-server
@@ -25,6 +39,37 @@ interface Sftp {
    * @param onFail 
    */
   exec(command: String, onSucess: (res: ExecResult)=>void, onFail: (err: any) => void): void;
+  /**
+   * Executes command on ssh-server and streams its output while it runs
+   * @param command 
+   * @param onStart Called once with the session id used by execWrite/execSignal/execStop
+   * @param onData Called with stdout/stderr chunks and finally with the exit code
+   * @param onFail 
+   */
+  execStream(command: String, onStart: (id: String) => void, onData: (type: 'stdout' | 'stderr' | 'exit', data: String) => void, onFail: (err: any) => void): void;
+  /**
+   * Writes a line to the stdin of a streaming command
+   * @param id Session id returned by execStream
+   * @param input 
+   * @param onSuccess 
+   * @param onFail 
+   */
+  execWrite(id: String, input: String, onSuccess: () => void, onFail: (err: any) => void): void;
+  /**
+   * Sends a signal (e.g. "INT", "TERM", "KILL") to a streaming command
+   * @param id Session id returned by execStream
+   * @param signal 
+   * @param onSuccess 
+   * @param onFail 
+   */
+  execSignal(id: String, signal: String, onSuccess: () => void, onFail: (err: any) => void): void;
+  /**
+   * Terminates a streaming command and closes its channel
+   * @param id Session id returned by execStream
+   * @param onSuccess 
+   * @param onFail 
+   */
+  execStop(id: String, onSuccess: () => void, onFail: (err: any) => void): void;
   /**
    * Connects to SFTP server
    * @param host Hostname of the server
@@ -66,6 +111,73 @@ interface Sftp {
    */
   putFile(filename: String, localFilename: String, onSuccess: (url: String) => void, onFail: (err: any) => void): void;
   
+  /**
+   * Copies a file or directory on the server without downloading it
+   * @param src 
+   * @param dest 
+   * @param onSuccess 
+   * @param onFail 
+   */
+  copy(src: String, dest: String, onSuccess: () => void, onFail: (err: any) => void): void;
+  /**
+   * Moves a file or directory on the server, also across filesystems
+   * @param src 
+   * @param dest 
+   * @param onSuccess 
+   * @param onFail 
+   */
+  move(src: String, dest: String, onSuccess: () => void, onFail: (err: any) => void): void;
+  /**
+   * Deletes a directory and its contents (rm -rf)
+   * @param path 
+   * @param onSuccess 
+   * @param onFail 
+   */
+  rmRecursive(path: String, onSuccess: () => void, onFail: (err: any) => void): void;
+  /**
+   * Creates a directory and any missing parents (mkdir -p)
+   * @param path 
+   * @param onSuccess 
+   * @param onFail 
+   */
+  mkdirs(path: String, onSuccess: () => void, onFail: (err: any) => void): void;
+
+  /**
+   * Forwards a local port to host:port as seen from the ssh-server. The
+   * returned url can be opened in the built-in browser to preview a remote
+   * dev server.
+   * @param localPort Local port, 0 picks a free one
+   * @param remoteHost Host to connect to from the server, usually "localhost"
+   * @param remotePort 
+   * @param onSuccess 
+   * @param onFail 
+   */
+  forwardPort(localPort: Number, remoteHost: String, remotePort: Number, onSuccess: (forward: PortForward) => void, onFail: (err: any) => void): void;
+  /**
+   * Stops forwarding the given local port
+   * @param localPort 
+   * @param onSuccess 
+   * @param onFail 
+   */
+  stopForwarding(localPort: Number, onSuccess: () => void, onFail: (err: any) => void): void;
+  /**
+   * Lists active port forwards
+   * @param onSuccess 
+   * @param onFail 
+   */
+  listForwards(onSuccess: (forwards: Array<PortForward>) => void, onFail: (err: any) => void): void;
+
+  /**
+   * Polls the remote file and reports when its size or mtime changes.
+   * Polling backs off while the file is unchanged.
+   * @param path Remote path
+   * @param listener Called with the change
+   * @param onFail 
+   */
+  watch(path: String, listener: (event: WatchEvent) => void, onFail: (err: any) => void): {
+    unwatch: () => void;
+  };
+
   /**
    * Closes the connection
    * @param onSuccess 
@@ -6,13 +6,16 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 import androidx.documentfile.provider.DocumentFile;
+import com.sshtools.client.SessionChannelNG;
 import com.sshtools.client.SshClient;
 import com.sshtools.client.SshClient.SshClientBuilder;
+import com.sshtools.client.sftp.SftpChannel;
 import com.sshtools.client.sftp.SftpClient;
 import com.sshtools.client.sftp.SftpClient.SftpClientBuilder;
 import com.sshtools.client.sftp.SftpFile;
 import com.sshtools.client.sftp.TransferCancelledException;
 import com.sshtools.common.permissions.PermissionDeniedException;
+import com.sshtools.common.permissions.UnauthorizedException;
 import com.sshtools.common.publickey.InvalidPassphraseException;
 import com.sshtools.common.publickey.SshKeyUtils;
 import com.sshtools.common.sftp.SftpFileAttributes;
@@ -21,9 +24,13 @@ import com.sshtools.common.ssh.SshException;
 import com.sshtools.common.ssh.components.SshKeyPair;
 import com.sshtools.common.ssh.components.jce.JCEProvider;
 import com.sshtools.common.util.FileUtils;
+import com.sshtools.common.util.UnsignedInteger64;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.SecurityException;
 import java.lang.reflect.Method;
@@ -33,10 +40,23 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.channels.UnresolvedAddressException;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -48,7 +68,27 @@ public class Sftp extends CordovaPlugin {
   private SftpClient sftp;
   private Context context;
   private Activity activity;
+  private static final int KEEP_ALIVE_INTERVAL = 30;
+  private static final int MAX_WARM_CONNECTIONS = 2;
+  private static boolean bouncyCastleEnabled = false;
   private String connectionID;
+  private String connectionKey;
+  private ConnectionParams lastParams;
+  private final Map<String, SshKeyPair> keyPairs = new ConcurrentHashMap<>();
+  private final Map<String, String> hostKeys = new ConcurrentHashMap<>();
+  private final Map<String, WarmConnection> warmConnections =
+    new LinkedHashMap<>();
+  private static final String LOOPBACK = "127.0.0.1";
+  private final Map<Integer, PortForward> forwards =
+    new ConcurrentHashMap<>();
+  private static final long MIN_WATCH_INTERVAL = 2000;
+  private static final long MAX_WATCH_INTERVAL = 30000;
+  private final Map<String, RemoteWatch> watches = new ConcurrentHashMap<>();
+  private ScheduledExecutorService watchScheduler;
+  private ScheduledFuture<?> watchTask;
+  private long watchInterval = MIN_WATCH_INTERVAL;
+  private final Map<String, SessionChannelNG> sessions =
+    new ConcurrentHashMap<>();
 
   public void initialize(CordovaInterface cordova, CordovaWebView webView) {
     super.initialize(cordova, webView);
@@ -95,48 +135,15 @@ public class Sftp extends CordovaPlugin {
               int port = args.optInt(1);
               String username = args.optString(2);
               String password = args.optString(3);
-              JCEProvider.enableBouncyCastle(true);
               Log.d(
                 TAG,
                 "Connecting to " + host + ":" + port + " as " + username
               );
-              ssh = SshClientBuilder.create()
-                .withHostname(host)
-                .withPort(port)
-                .withUsername(username)
-                .withPassword(password)
-                .build();
-
-              if (ssh.isConnected()) {
-                connectionID = username + "@" + host;
-
-                try {
-                  sftp = SftpClientBuilder.create().withClient(ssh).build();
-                } catch (IOException | SshException e) {
-                  ssh.close();
-                  callback.error(
-                    "Failed to initialize SFTP subsystem: " + errMessage(e)
-                  );
-                  Log.e(TAG, "Failed to initialize SFTP subsystem", e);
-                  return;
-                }
-
-                try {
-                  sftp.getSubsystemChannel().setCharsetEncoding("UTF-8");
-                } catch (UnsupportedEncodingException | SshException e) {
-                  // Fallback to default encoding if UTF-8 fails
-                  Log.w(
-                    TAG,
-                    "Failed to set UTF-8 encoding, falling back to default",
-                    e
-                  );
-                }
-                callback.success();
-                Log.d(TAG, "Connected successfully to " + connectionID);
-                return;
-              }
-
-              callback.error("Failed to establish SSH connection");
+              connect(
+                new ConnectionParams(host, port, username, password, null)
+              );
+              callback.success();
+              Log.d(TAG, "Connected successfully to " + connectionID);
             } catch (UnresolvedAddressException e) {
               callback.error("Cannot resolve host address");
               Log.e(TAG, "Cannot resolve host address", e);
@@ -170,19 +177,10 @@ public class Sftp extends CordovaPlugin {
               String username = args.optString(2);
               String keyFile = args.optString(3);
               String passphrase = args.optString(4);
-              DocumentFile file = DocumentFile.fromSingleUri(
-                context,
-                Uri.parse(keyFile)
-              );
-              Uri uri = file.getUri();
-              ContentResolver contentResolver = context.getContentResolver();
-              InputStream in = contentResolver.openInputStream(uri);
-
-              JCEProvider.enableBouncyCastle(true);
 
               SshKeyPair keyPair = null;
               try {
-                keyPair = SshKeyUtils.getPrivateKey(in, passphrase);
+                keyPair = getKeyPair(keyFile, passphrase);
               } catch (InvalidPassphraseException e) {
                 callback.error("Invalid passphrase for key file");
                 Log.e(TAG, "Invalid passphrase for key file", e);
@@ -193,42 +191,11 @@ public class Sftp extends CordovaPlugin {
                 return;
               }
 
-              ssh = SshClientBuilder.create()
-                .withHostname(host)
-                .withPort(port)
-                .withUsername(username)
-                .withIdentities(keyPair)
-                .build();
-
-              if (ssh.isConnected()) {
-                connectionID = username + "@" + host;
-                try {
-                  sftp = SftpClientBuilder.create().withClient(ssh).build();
-                } catch (IOException | SshException e) {
-                  ssh.close();
-                  callback.error(
-                    "Failed to initialize SFTP subsystem: " + errMessage(e)
-                  );
-                  Log.e(TAG, "Failed to initialize SFTP subsystem", e);
-                  return;
-                }
-
-                try {
-                  sftp.getSubsystemChannel().setCharsetEncoding("UTF-8");
-                } catch (UnsupportedEncodingException | SshException e) {
-                  // Fallback to default encoding if UTF-8 fails
-                  Log.w(
-                    TAG,
-                    "Failed to set UTF-8 encoding, falling back to default",
-                    e
-                  );
-                }
-                callback.success();
-                Log.d(TAG, "Connected successfully to " + connectionID);
-                return;
-              }
-
-              callback.error("Failed to establish SSH connection");
+              connect(
+                new ConnectionParams(host, port, username, null, keyPair)
+              );
+              callback.success();
+              Log.d(TAG, "Connected successfully to " + connectionID);
             } catch (UnresolvedAddressException e) {
               callback.error("Cannot resolve host address");
               Log.e(TAG, "Cannot resolve host address", e);
@@ -253,6 +220,353 @@ public class Sftp extends CordovaPlugin {
       );
   }
 
+  /**
+   * Makes the connection described by params the active one. A still-open
+   * connection to the same user@host:port with the same credentials (either
+   * the active one or one parked by a previous switch) is reused, so the TCP
+   * handshake, key exchange and authentication are skipped.
+   */
+  private synchronized void connect(ConnectionParams params)
+    throws IOException, SshException, PermissionDeniedException {
+    String key = params.key();
+
+    if (key.equals(connectionKey) && isAlive(ssh, sftp)) {
+      Log.d(TAG, "Reusing active connection to " + params.address());
+      lastParams = params;
+      return;
+    }
+
+    // Watched paths belong to the previous host
+    if (connectionKey != null && !key.equals(connectionKey)) {
+      clearWatches();
+    }
+
+    if (connectionKey != null && isAlive(ssh, sftp)) {
+      parkConnection(connectionKey, ssh, sftp);
+    }
+
+    WarmConnection warm = warmConnections.remove(key);
+    if (warm != null && isAlive(warm.ssh, warm.sftp)) {
+      Log.d(TAG, "Reusing warm connection to " + params.address());
+      ssh = warm.ssh;
+      sftp = warm.sftp;
+    } else {
+      if (warm != null) {
+        closeWarmConnection(warm);
+      }
+      openConnection(params);
+    }
+
+    connectionKey = key;
+    connectionID = params.username + "@" + params.host;
+    lastParams = params;
+  }
+
+  /**
+   * Re-establishes the last connection if the transport was dropped, e.g.
+   * after the device switched networks. Returns false if there is nothing to
+   * reconnect to or reconnecting failed.
+   */
+  private synchronized boolean ensureConnected() {
+    if (isAlive(ssh, sftp)) {
+      return true;
+    }
+
+    if (lastParams == null) {
+      return false;
+    }
+
+    try {
+      Log.d(TAG, "Connection lost, reconnecting to " + lastParams.address());
+      connectionKey = null;
+      connect(lastParams);
+      return true;
+    } catch (Exception e) {
+      Log.e(TAG, "Reconnect failed", e);
+      return false;
+    }
+  }
+
+  private void openConnection(ConnectionParams params)
+    throws IOException, SshException, PermissionDeniedException {
+    enableBouncyCastle();
+
+    SshClientBuilder builder = SshClientBuilder.create()
+      .withHostname(params.host)
+      .withPort(params.port)
+      .withUsername(params.username)
+      .onConfigure(context -> {
+        context.setKeepAliveInterval(KEEP_ALIVE_INTERVAL);
+        context.setHostKeyVerification((host, key) ->
+          verifyHostKey(params.host + ":" + params.port, key.getFingerprint())
+        );
+      });
+
+    if (params.keyPair != null) {
+      builder.withIdentities(params.keyPair);
+    } else {
+      builder.withPassword(params.password);
+    }
+
+    SshClient client = builder.build();
+    if (!client.isConnected()) {
+      throw new IOException("Failed to establish SSH connection");
+    }
+
+    SftpClient sftpClient;
+    try {
+      sftpClient = SftpClientBuilder.create().withClient(client).build();
+    } catch (IOException | SshException e) {
+      client.close();
+      Log.e(TAG, "Failed to initialize SFTP subsystem", e);
+      throw new IOException(
+        "Failed to initialize SFTP subsystem: " + errMessage(e),
+        e
+      );
+    }
+
+    try {
+      sftpClient.getSubsystemChannel().setCharsetEncoding("UTF-8");
+    } catch (UnsupportedEncodingException | SshException e) {
+      // Fallback to default encoding if UTF-8 fails
+      Log.w(TAG, "Failed to set UTF-8 encoding, falling back to default", e);
+    }
+
+    ssh = client;
+    sftp = sftpClient;
+  }
+
+  /**
+   * Pins the host key seen on the first connection to a host for the lifetime
+   * of the plugin, so silent reconnects cannot be redirected to another server.
+   */
+  private boolean verifyHostKey(String host, String fingerprint) {
+    String known = hostKeys.putIfAbsent(host, fingerprint);
+    if (known != null && !known.equals(fingerprint)) {
+      Log.e(TAG, "Host key for " + host + " changed, refusing to connect");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Parses the key file once per file and passphrase. Decrypted keys are only
+   * held in memory and dropped when the connection is closed.
+   */
+  private SshKeyPair getKeyPair(String keyFile, String passphrase)
+    throws IOException, InvalidPassphraseException {
+    String cacheKey = keyFile + "\n" + sha256(passphrase);
+    SshKeyPair keyPair = keyPairs.get(cacheKey);
+    if (keyPair != null) {
+      return keyPair;
+    }
+
+    enableBouncyCastle();
+    DocumentFile file = DocumentFile.fromSingleUri(
+      context,
+      Uri.parse(keyFile)
+    );
+    ContentResolver contentResolver = context.getContentResolver();
+    try (InputStream in = contentResolver.openInputStream(file.getUri())) {
+      keyPair = SshKeyUtils.getPrivateKey(in, passphrase);
+    }
+    keyPairs.put(cacheKey, keyPair);
+    return keyPair;
+  }
+
+  private void parkConnection(
+    String key,
+    SshClient client,
+    SftpClient sftpClient
+  ) {
+    WarmConnection previous = warmConnections.put(
+      key,
+      new WarmConnection(client, sftpClient)
+    );
+    if (previous != null) {
+      closeWarmConnection(previous);
+    }
+
+    while (warmConnections.size() > MAX_WARM_CONNECTIONS) {
+      String eldest = warmConnections.keySet().iterator().next();
+      closeWarmConnection(warmConnections.remove(eldest));
+    }
+  }
+
+  /**
+   * Closes a parked connection along with the forwards running on it, so
+   * listForwards and stopForwarding don't see dead entries.
+   */
+  private void closeWarmConnection(WarmConnection warm) {
+    forwards.values().removeIf(forward -> forward.client == warm.ssh);
+    warm.close();
+  }
+
+  private static synchronized void enableBouncyCastle() {
+    if (!bouncyCastleEnabled) {
+      JCEProvider.enableBouncyCastle(true);
+      bouncyCastleEnabled = true;
+    }
+  }
+
+  private static boolean isAlive(SshClient client, SftpClient sftpClient) {
+    return (
+      client != null &&
+      client.isConnected() &&
+      sftpClient != null &&
+      !sftpClient.isClosed()
+    );
+  }
+
+  private static String sha256(String value) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : hash) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      return String.valueOf(value.hashCode());
+    }
+  }
+
+  private static class ConnectionParams {
+
+    final String host;
+    final int port;
+    final String username;
+    final String password;
+    final SshKeyPair keyPair;
+    // Digest of the password or public key, so a connection is only reused
+    // by callers that could have authenticated it themselves
+    private final String credentials;
+
+    ConnectionParams(
+      String host,
+      int port,
+      String username,
+      String password,
+      SshKeyPair keyPair
+    ) {
+      this.host = host;
+      this.port = port;
+      this.username = username;
+      this.password = password;
+      this.keyPair = keyPair;
+      this.credentials = credentialsDigest(password, keyPair);
+    }
+
+    String address() {
+      return username + "@" + host + ":" + port;
+    }
+
+    String key() {
+      return address() + "#" + credentials;
+    }
+
+    private static String credentialsDigest(
+      String password,
+      SshKeyPair keyPair
+    ) {
+      if (keyPair != null) {
+        try {
+          return "key:" + keyPair.getPublicKey().getFingerprint();
+        } catch (SshException e) {
+          // Never matches another key pair's digest
+          return "key:" + System.identityHashCode(keyPair);
+        }
+      }
+      return "password:" + sha256(password == null ? "" : password);
+    }
+  }
+
+  private static class RemoteWatch {
+
+    final String path;
+    final CallbackContext listener;
+    boolean exists;
+    long size;
+    long lastModified;
+
+    RemoteWatch(String path, CallbackContext listener) {
+      this.path = path;
+      this.listener = listener;
+    }
+
+    /**
+     * Stores the latest stat digest and returns the kind of change compared
+     * to the previous one, or null if nothing changed.
+     */
+    String update(SftpFileAttributes attrs) {
+      boolean nowExists = attrs != null;
+      long nowSize = nowExists ? attrs.size().longValue() : -1;
+      long nowModified = nowExists ? attrs.lastModifiedTime().toMillis() : -1;
+      String kind = null;
+
+      if (exists && !nowExists) {
+        kind = "delete";
+      } else if (!exists && nowExists) {
+        kind = "create";
+      } else if (nowSize != size || nowModified != lastModified) {
+        kind = "modify";
+      }
+
+      exists = nowExists;
+      size = nowSize;
+      lastModified = nowModified;
+      return kind;
+    }
+
+    void emit(String kind) {
+      try {
+        JSONObject event = new JSONObject();
+        event.put("path", path);
+        event.put("kind", kind);
+        event.put("exists", exists);
+        event.put("length", size);
+        event.put("lastModified", lastModified);
+        PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+        result.setKeepCallback(true);
+        listener.sendPluginResult(result);
+      } catch (JSONException e) {
+        Log.w(TAG, "Failed to report change of " + path, e);
+      }
+    }
+  }
+
+  private static class PortForward {
+
+    final SshClient client;
+    final String remote;
+
+    PortForward(SshClient client, String remote) {
+      this.client = client;
+      this.remote = remote;
+    }
+  }
+
+  private static class WarmConnection {
+
+    final SshClient ssh;
+    final SftpClient sftp;
+
+    WarmConnection(SshClient ssh, SftpClient sftp) {
+      this.ssh = ssh;
+      this.sftp = sftp;
+    }
+
+    void close() {
+      try {
+        sftp.quit();
+        ssh.close();
+      } catch (IOException | SshException e) {
+        Log.w(TAG, "Failed to close idle connection", e);
+      }
+    }
+  }
+
   public void exec(JSONArray args, CallbackContext callback) {
     cordova
       .getThreadPool()
@@ -261,7 +575,7 @@ public class Sftp extends CordovaPlugin {
           public void run() {
             try {
               String command = args.optString(0);
-              if (ssh != null) {
+              if (ensureConnected()) {
                 JSONObject res = new JSONObject();
                 StringBuffer buffer = new StringBuffer();
                 int code = ssh.executeCommandWithResult(command, buffer);
@@ -280,6 +594,171 @@ public class Sftp extends CordovaPlugin {
       );
   }
 
+  public void execStream(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            String id = UUID.randomUUID().toString();
+            SessionChannelNG session = null;
+            try {
+              String command = args.optString(0);
+              if (!ensureConnected()) {
+                callback.error("Not connected");
+                return;
+              }
+
+              session = ssh.openSessionChannel();
+              boolean started = session
+                .executeCommand(command, "UTF-8")
+                .waitForever()
+                .isSuccess();
+              if (!started) {
+                session.close();
+                callback.error("Failed to execute command");
+                return;
+              }
+
+              sessions.put(id, session);
+              sendStreamMessage(callback, id, true);
+
+              final SessionChannelNG channel = session;
+              final CountDownLatch stderrDone = new CountDownLatch(1);
+              cordova
+                .getThreadPool()
+                .execute(
+                  new Runnable() {
+                    public void run() {
+                      try {
+                        streamChannel(
+                          channel.getStderrStream(),
+                          "stderr",
+                          callback
+                        );
+                      } finally {
+                        stderrDone.countDown();
+                      }
+                    }
+                  }
+                );
+
+              streamChannel(session.getInputStream(), "stdout", callback);
+              stderrDone.await();
+              session.getCloseFuture().waitForever();
+              sendStreamMessage(
+                callback,
+                "exit:" + session.getExitCode(),
+                false
+              );
+            } catch (SshException e) {
+              callback.error("SSH error: " + errMessage(e));
+              Log.e(TAG, "Failed to open exec channel", e);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              callback.error(errMessage(e));
+            } finally {
+              sessions.remove(id);
+              // Don't leave a half-open channel behind when starting the
+              // command or streaming failed
+              if (session != null && !session.isClosed()) {
+                session.close();
+              }
+            }
+          }
+        }
+      );
+  }
+
+  public void execWrite(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              SessionChannelNG session = sessions.get(args.optString(0));
+              if (session == null || session.isClosed()) {
+                callback.error("Session not found or closed");
+                return;
+              }
+
+              OutputStream os = session.getOutputStream();
+              os.write(
+                (args.optString(1) + "\n").getBytes(StandardCharsets.UTF_8)
+              );
+              os.flush();
+              callback.success();
+            } catch (IOException e) {
+              callback.error("Write error: " + errMessage(e));
+            }
+          }
+        }
+      );
+  }
+
+  public void execSignal(JSONArray args, CallbackContext callback) {
+    SessionChannelNG session = sessions.get(args.optString(0));
+    if (session == null) {
+      callback.error("Session not found or closed");
+      return;
+    }
+
+    // Signal names are sent without the "SIG" prefix, see RFC 4254 6.9
+    String signal = args.optString(1, "INT").replaceFirst("^SIG", "");
+    session.signal(signal);
+    callback.success();
+  }
+
+  public void execStop(JSONArray args, CallbackContext callback) {
+    SessionChannelNG session = sessions.remove(args.optString(0));
+    if (session == null) {
+      callback.error("Session not found or closed");
+      return;
+    }
+
+    // Not every server honours signals, closing the channel always ends the
+    // stream and makes execStream deliver the exit message.
+    session.signal("TERM");
+    session.close();
+    callback.success();
+  }
+
+  private void streamChannel(
+    InputStream in,
+    String streamType,
+    CallbackContext callback
+  ) {
+    try (
+      InputStreamReader reader = new InputStreamReader(
+        in,
+        StandardCharsets.UTF_8
+      )
+    ) {
+      char[] buffer = new char[8192];
+      int read;
+      while ((read = reader.read(buffer)) != -1) {
+        sendStreamMessage(
+          callback,
+          streamType + ":" + new String(buffer, 0, read),
+          true
+        );
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Exec " + streamType + " stream closed", e);
+    }
+  }
+
+  private void sendStreamMessage(
+    CallbackContext callback,
+    String message,
+    boolean keepCallback
+  ) {
+    PluginResult result = new PluginResult(PluginResult.Status.OK, message);
+    result.setKeepCallback(keepCallback);
+    callback.sendPluginResult(result);
+  }
+
   public void getFile(JSONArray args, CallbackContext callback) {
     cordova
       .getThreadPool()
@@ -289,7 +768,7 @@ public class Sftp extends CordovaPlugin {
             try {
               String filename = args.optString(0);
               String localFilename = args.optString(1);
-              if (ssh != null && sftp != null) {
+              if (ensureConnected()) {
                 URI uri = new URI(localFilename);
                 DocumentFile file = DocumentFile.fromSingleUri(
                   context,
@@ -344,7 +823,7 @@ public class Sftp extends CordovaPlugin {
               String remoteFilename = args.optString(0);
               String localFilename = args.optString(1);
 
-              if (ssh == null || sftp == null) {
+              if (!ensureConnected()) {
                 callback.error("Not connected");
                 return;
               }
@@ -395,7 +874,7 @@ public class Sftp extends CordovaPlugin {
           public void run() {
             try {
               String path = args.optString(0);
-              if (ssh != null && sftp != null) {
+              if (ensureConnected()) {
                 JSONArray files = new JSONArray();
                 for (SftpFile file : sftp.ls(path)) {
                   String filename = file.getFilename();
@@ -471,7 +950,7 @@ public class Sftp extends CordovaPlugin {
           public void run() {
             try {
               String path = sanitizePath(args.optString(0));
-              if (ssh != null && sftp != null) {
+              if (ensureConnected()) {
                 URI uri = new URI(path);
                 JSONObject fileStat = new JSONObject();
 
@@ -555,7 +1034,7 @@ public class Sftp extends CordovaPlugin {
           public void run() {
             try {
               String path = args.optString(0);
-              if (ssh != null && sftp != null) {
+              if (ensureConnected()) {
                 sftp.mkdir(path);
                 callback.success();
                 return;
@@ -580,7 +1059,7 @@ public class Sftp extends CordovaPlugin {
               boolean force = args.optBoolean(1, false);
               boolean recurse = args.optBoolean(2, false);
 
-              if (ssh != null && sftp != null) {
+              if (ensureConnected()) {
                 sftp.rm(path, force, recurse);
                 callback.success();
                 return;
@@ -604,7 +1083,7 @@ public class Sftp extends CordovaPlugin {
               String path = args.optString(0);
               String content = args.optString(1, "");
 
-              if (ssh != null && sftp != null) {
+              if (ensureConnected()) {
                 try {
                   SftpFileAttributes attrs = sftp.stat(path);
                   if (attrs != null && attrs.isFile()) {
@@ -648,7 +1127,7 @@ public class Sftp extends CordovaPlugin {
               String oldpath = args.optString(0);
               String newpath = args.optString(1);
 
-              if (ssh != null && sftp != null) {
+              if (ensureConnected()) {
                 sftp.rename(oldpath, newpath);
                 callback.success();
                 return;
@@ -662,6 +1141,289 @@ public class Sftp extends CordovaPlugin {
       );
   }
 
+  public void copy(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              String src = args.optString(0);
+              String dest = args.optString(1);
+
+              if (!ensureConnected()) {
+                callback.error("Not connected");
+                return;
+              }
+
+              // dest is the path of the copy itself: a directory is merged
+              // into an existing dest rather than nested inside it, a file is
+              // never copied into a directory and symlinks are copied as
+              // links, not followed.
+              SftpFileAttributes attrs = sftp.statLink(src);
+              if (isWithin(dest, src)) {
+                callback.error(
+                  attrs.isDirectory()
+                    ? "Cannot copy a directory into itself"
+                    : "Source and destination are the same"
+                );
+                return;
+              }
+              SftpFileAttributes destAttrs = statIfExists(dest);
+              if (
+                !attrs.isDirectory() &&
+                destAttrs != null &&
+                destAttrs.isDirectory()
+              ) {
+                callback.error("Destination is a directory");
+                return;
+              }
+
+              if (sftp.getSubsystemChannel().supportsExtension("copy-data")) {
+                copyRemote(src, attrs, dest);
+              } else if (attrs.isDirectory()) {
+                execOrFail(
+                  "mkdir -p -- " +
+                  shellQuote(dest) +
+                  " && cp -RP -- " +
+                  shellQuote(src + "/.") +
+                  " " +
+                  shellQuote(dest)
+                );
+              } else {
+                execOrFail(
+                  "cp -RP -- " + shellQuote(src) + " " + shellQuote(dest)
+                );
+              }
+              callback.success();
+            } catch (SftpStatusException | SshException | IOException e) {
+              callback.error(errMessage(e));
+            }
+          }
+        }
+      );
+  }
+
+  public void move(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              String src = args.optString(0);
+              String dest = args.optString(1);
+
+              if (!ensureConnected()) {
+                callback.error("Not connected");
+                return;
+              }
+
+              try {
+                sftp.rename(src, dest);
+              } catch (SftpStatusException e) {
+                // SFTP rename cannot cross filesystems, mv can. Servers
+                // report that as a generic failure; anything more specific,
+                // like an existing dest, is a real error.
+                int status = e.getStatus();
+                if (
+                  status != SftpStatusException.SSH_FX_FAILURE &&
+                  status != SftpStatusException.SSH_FX_OP_UNSUPPORTED
+                ) {
+                  throw e;
+                }
+                // mv would replace dest, which rename refuses to do
+                if (statIfExists(dest) != null) {
+                  callback.error("Destination already exists");
+                  return;
+                }
+                Log.d(TAG, "rename failed, falling back to mv", e);
+                execOrFail("mv -- " + shellQuote(src) + " " + shellQuote(dest));
+              }
+              callback.success();
+            } catch (SftpStatusException | SshException | IOException e) {
+              callback.error(errMessage(e));
+            }
+          }
+        }
+      );
+  }
+
+  public void rmRecursive(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              String path = args.optString(0);
+
+              if (!ensureConnected()) {
+                callback.error("Not connected");
+                return;
+              }
+
+              try {
+                execOrFail("rm -rf -- " + shellQuote(path));
+              } catch (IOException e) {
+                // Accounts restricted to SFTP have no shell, walk the tree
+                // over SFTP instead.
+                Log.d(TAG, "rm -rf failed, falling back to SFTP", e);
+                sftp.rm(path, true, true);
+              }
+              callback.success();
+            } catch (SftpStatusException | SshException e) {
+              callback.error(errMessage(e));
+            }
+          }
+        }
+      );
+  }
+
+  public void mkdirs(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              String path = args.optString(0);
+              if (ensureConnected()) {
+                sftp.mkdirs(path);
+                callback.success();
+                return;
+              }
+              callback.error("Not connected");
+            } catch (SftpStatusException | SshException e) {
+              callback.error(errMessage(e));
+            }
+          }
+        }
+      );
+  }
+
+  /**
+   * Copies src to dest on the server using the copy-data extension, so file
+   * contents never travel over the connection. attrs are the attributes of
+   * src itself, not of what it links to.
+   */
+  private void copyRemote(String src, SftpFileAttributes attrs, String dest)
+    throws SftpStatusException, SshException, IOException {
+    if (attrs.isLink()) {
+      // relativeSymlink keeps the target as written instead of resolving it
+      sftp.relativeSymlink(sftp.getSymbolicLinkTarget(src), dest);
+      return;
+    }
+
+    if (attrs.isDirectory()) {
+      sftp.mkdirs(dest);
+      for (SftpFile file : sftp.ls(src)) {
+        String filename = file.getFilename();
+        if (filename.equals(".") || filename.equals("..")) {
+          continue;
+        }
+        // Directory listings carry lstat attributes
+        copyRemote(
+          src + "/" + filename,
+          file.attributes(),
+          dest + "/" + filename
+        );
+      }
+      copyPermissions(attrs, dest);
+      return;
+    }
+
+    try {
+      sftp.put(new ByteArrayInputStream(new byte[0]), dest);
+    } catch (TransferCancelledException e) {
+      throw new IOException(e);
+    }
+
+    SftpChannel channel = sftp.getSubsystemChannel();
+    UnsignedInteger64 zero = new UnsignedInteger64(0);
+    // A length of 0 copies up to the end of the source file
+    sftp.copyRemoteData(
+      channel.getFile(src),
+      zero,
+      zero,
+      channel.getFile(dest),
+      zero
+    );
+    // put creates dest with default permissions, which drops exec bits
+    copyPermissions(attrs, dest);
+  }
+
+  private void copyPermissions(SftpFileAttributes attrs, String dest)
+    throws SftpStatusException, SshException {
+    if (attrs.hasPermissions()) {
+      sftp.chmod(attrs.permissions(), dest);
+    }
+  }
+
+  /**
+   * Whether path is dir or somewhere below it, comparing normalized
+   * absolute paths without touching the server's file system.
+   */
+  private boolean isWithin(String path, String dir)
+    throws SftpStatusException, SshException {
+    String base = sftp.pwd();
+    String normalizedPath = normalizePath(base, path);
+    String normalizedDir = normalizePath(base, dir);
+    return (
+      normalizedPath.equals(normalizedDir) ||
+      normalizedPath.startsWith(
+        normalizedDir.endsWith("/") ? normalizedDir : normalizedDir + "/"
+      )
+    );
+  }
+
+  private static String normalizePath(String base, String path) {
+    String joined = path.startsWith("/") ? path : base + "/" + path;
+    LinkedList<String> parts = new LinkedList<String>();
+    for (String part : joined.split("/")) {
+      if (part.isEmpty() || part.equals(".")) continue;
+      if (part.equals("..")) {
+        if (!parts.isEmpty()) parts.removeLast();
+        continue;
+      }
+      parts.add(part);
+    }
+    return "/" + String.join("/", parts);
+  }
+
+  /**
+   * Returns the attributes of path, or null if it doesn't exist.
+   */
+  private SftpFileAttributes statIfExists(String path)
+    throws SftpStatusException, SshException {
+    try {
+      return sftp.stat(path);
+    } catch (SftpStatusException e) {
+      if (
+        e.getStatus() == SftpStatusException.SSH_FX_NO_SUCH_FILE ||
+        e.getStatus() == SftpStatusException.SSH_FX_NO_SUCH_PATH
+      ) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  private void execOrFail(String command) throws IOException {
+    StringBuffer buffer = new StringBuffer();
+    int code = ssh.executeCommandWithResult(command, buffer);
+    if (code != 0) {
+      String output = buffer.toString().trim();
+      throw new IOException(
+        output.isEmpty() ? "Command exited with code: " + code : output
+      );
+    }
+  }
+
+  private static String shellQuote(String value) {
+    return "'" + value.replace("'", "'\\''") + "'";
+  }
+
   public void pwd(JSONArray args, CallbackContext callback) {
     cordova
       .getThreadPool()
@@ -669,7 +1431,7 @@ public class Sftp extends CordovaPlugin {
         new Runnable() {
           public void run() {
             try {
-              if (ssh != null && sftp != null) {
+              if (ensureConnected()) {
                 String pwd = sftp.pwd();
                 callback.success(pwd);
                 return;
@@ -683,6 +1445,210 @@ public class Sftp extends CordovaPlugin {
       );
   }
 
+  public void forwardPort(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            try {
+              int localPort = args.optInt(0, 0);
+              String remoteHost = args.optString(1, "localhost");
+              int remotePort = args.optInt(2);
+
+              if (!ensureConnected()) {
+                callback.error("Not connected");
+                return;
+              }
+
+              // Bind to loopback only, the tunnel must not be reachable from
+              // other devices on the network.
+              int boundPort = ssh.startLocalForwarding(
+                LOOPBACK,
+                localPort,
+                remoteHost,
+                remotePort
+              );
+              forwards.put(
+                boundPort,
+                new PortForward(ssh, remoteHost + ":" + remotePort)
+              );
+
+              JSONObject res = new JSONObject();
+              res.put("port", boundPort);
+              res.put("url", "http://" + LOOPBACK + ":" + boundPort);
+              callback.success(res);
+            } catch (UnauthorizedException | SshException e) {
+              callback.error("Port forwarding failed: " + errMessage(e));
+              Log.e(TAG, "Port forwarding failed", e);
+            } catch (JSONException e) {
+              callback.error(errMessage(e));
+            }
+          }
+        }
+      );
+  }
+
+  public void stopForwarding(JSONArray args, CallbackContext callback) {
+    int localPort = args.optInt(0);
+    PortForward forward = forwards.remove(localPort);
+    if (forward == null) {
+      callback.error("No forwarding on port " + localPort);
+      return;
+    }
+
+    // The tunnel belongs to the client it was opened on, which may have been
+    // parked since.
+    forward.client.stopLocalForwarding(LOOPBACK, localPort);
+    callback.success();
+  }
+
+  public void listForwards(JSONArray args, CallbackContext callback) {
+    try {
+      JSONArray res = new JSONArray();
+      for (Map.Entry<Integer, PortForward> entry : forwards.entrySet()) {
+        JSONObject forward = new JSONObject();
+        forward.put("port", entry.getKey());
+        forward.put("remote", entry.getValue().remote);
+        forward.put("url", "http://" + LOOPBACK + ":" + entry.getKey());
+        res.put(forward);
+      }
+      callback.success(res);
+    } catch (JSONException e) {
+      callback.error(errMessage(e));
+    }
+  }
+
+  public void watch(JSONArray args, CallbackContext callback) {
+    cordova
+      .getThreadPool()
+      .execute(
+        new Runnable() {
+          public void run() {
+            String path = args.optString(0);
+            String id = args.optString(1);
+            if (!ensureConnected()) {
+              callback.error("Not connected");
+              return;
+            }
+
+            RemoteWatch watch = new RemoteWatch(path, callback);
+            try {
+              watch.update(sftp.stat(path));
+            } catch (SftpStatusException e) {
+              watch.update(null);
+            } catch (SshException e) {
+              callback.error(errMessage(e));
+              return;
+            }
+
+            watches.put(id, watch);
+            // A new watch usually means the user just opened the file, so
+            // poll eagerly again.
+            synchronized (watches) {
+              watchInterval = MIN_WATCH_INTERVAL;
+              if (watchTask == null || watchTask.isDone()) {
+                scheduleWatchPoll();
+              }
+            }
+          }
+        }
+      );
+  }
+
+  public void unwatch(JSONArray args, CallbackContext callback) {
+    RemoteWatch watch = watches.remove(args.optString(0));
+    if (watch != null) {
+      endWatch(watch);
+    }
+    callback.success();
+  }
+
+  private void endWatch(RemoteWatch watch) {
+    PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+    result.setKeepCallback(false);
+    watch.listener.sendPluginResult(result);
+  }
+
+  /**
+   * Ends all watches and the poll, when the connection they were made on is
+   * closed or replaced by one to another host.
+   */
+  private void clearWatches() {
+    synchronized (watches) {
+      for (RemoteWatch watch : watches.values()) {
+        endWatch(watch);
+      }
+      watches.clear();
+      if (watchTask != null) {
+        watchTask.cancel(false);
+        watchTask = null;
+      }
+    }
+  }
+
+  private void scheduleWatchPoll() {
+    if (watchScheduler == null) {
+      watchScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    watchTask = watchScheduler.schedule(
+      new Runnable() {
+        public void run() {
+          pollWatches();
+        }
+      },
+      watchInterval,
+      TimeUnit.MILLISECONDS
+    );
+  }
+
+  /**
+   * Stats every watched path in one pass over the SFTP channel and reports
+   * only the paths whose size or mtime changed. The interval backs off while
+   * nothing changes and snaps back to the minimum after a change.
+   */
+  private void pollWatches() {
+    boolean changed = false;
+
+    try {
+      if (isAlive(ssh, sftp)) {
+        for (RemoteWatch watch : watches.values()) {
+          SftpFileAttributes attrs;
+          try {
+            attrs = sftp.stat(watch.path);
+          } catch (SftpStatusException e) {
+            attrs = null;
+          } catch (SshException e) {
+            Log.w(TAG, "Failed to stat watched file " + watch.path, e);
+            break;
+          }
+
+          String kind = watch.update(attrs);
+          if (kind != null) {
+            changed = true;
+            watch.emit(kind);
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      // Keep polling; an unchecked error must not end the schedule
+      Log.w(TAG, "Failed to poll watched files", e);
+    }
+
+    synchronized (watches) {
+      if (watches.isEmpty()) {
+        watchTask = null;
+        return;
+      }
+
+      watchInterval = changed
+        ? MIN_WATCH_INTERVAL
+        : Math.min(watchInterval * 2, MAX_WATCH_INTERVAL);
+      scheduleWatchPoll();
+    }
+  }
+
   private String sanitizePath(String path) {
     try {
       String decodedPath = URLDecoder.decode(
@@ -711,8 +1677,7 @@ public class Sftp extends CordovaPlugin {
           public void run() {
             try {
               if (ssh != null) {
-                ssh.close();
-                sftp.quit();
+                closeConnection();
                 callback.success();
                 return;
               }
@@ -725,18 +1690,56 @@ public class Sftp extends CordovaPlugin {
       );
   }
 
+  @Override
+  public void onDestroy() {
+    try {
+      if (ssh != null) {
+        closeConnection();
+      }
+    } catch (IOException | SshException e) {
+      Log.w(TAG, "Failed to close connection", e);
+    }
+
+    forwards.clear();
+    clearWatches();
+    if (watchScheduler != null) {
+      watchScheduler.shutdownNow();
+    }
+
+    synchronized (this) {
+      for (WarmConnection warm : warmConnections.values()) {
+        closeWarmConnection(warm);
+      }
+      warmConnections.clear();
+    }
+    super.onDestroy();
+  }
+
+  private synchronized void closeConnection()
+    throws IOException, SshException {
+    for (SessionChannelNG session : sessions.values()) {
+      session.close();
+    }
+    sessions.clear();
+    // An explicit close ends the session: forget how to reconnect and drop
+    // the decrypted keys.
+    lastParams = null;
+    connectionKey = null;
+    keyPairs.clear();
+    clearWatches();
+    ssh.stopLocalForwarding();
+    forwards.values().removeIf(forward -> forward.client == ssh);
+    ssh.close();
+    sftp.quit();
+  }
+
   public void isConnected(JSONArray args, CallbackContext callback) {
     cordova
       .getThreadPool()
       .execute(
         new Runnable() {
           public void run() {
-            if (
-              ssh != null &&
-              ssh.isConnected() &&
-              sftp != null &&
-              !sftp.isClosed()
-            ) {
+            if (isAlive(ssh, sftp)) {
               callback.success(connectionID);
               return;
             }
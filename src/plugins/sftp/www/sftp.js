@@ -2,6 +2,25 @@ module.exports = {
   exec: function (command, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'exec', [command]);
   },
+  execStream: function (command, onStart, onData, onFail) {
+    cordova.exec(function (message) {
+      if (message.startsWith('stdout:')) return onData('stdout', message.slice(7));
+      if (message.startsWith('stderr:')) return onData('stderr', message.slice(7));
+      if (message.startsWith('exit:')) return onData('exit', message.slice(5));
+
+      // First message is always the session id
+      onStart(message);
+    }, onFail, 'Sftp', 'execStream', [command]);
+  },
+  execWrite: function (id, input, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'execWrite', [id, input]);
+  },
+  execSignal: function (id, signal, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'execSignal', [id, signal]);
+  },
+  execStop: function (id, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'execStop', [id]);
+  },
   connectUsingPassword: function (host, port, username, password, onSuccess, onFail) {
     if (typeof port != 'number') {
       throw new Error('Port must be number');
@@ -36,12 +55,42 @@ module.exports = {
   rm: function (path, force, recurse, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'rm', [path, force, recurse]);
   },
+  mkdirs: function (path, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'mkdirs', [path]);
+  },
+  rmRecursive: function (path, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'rmRecursive', [path]);
+  },
+  copy: function (src, dest, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'copy', [src, dest]);
+  },
+  move: function (src, dest, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'move', [src, dest]);
+  },
   createFile: function (path, content, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'createFile', [path, content]);
   },
   rename: function (oldpath, newpath, onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'rename', [oldpath, newpath]);
   },
+  forwardPort: function (localPort, remoteHost, remotePort, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'forwardPort', [localPort, remoteHost, remotePort]);
+  },
+  stopForwarding: function (localPort, onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'stopForwarding', [localPort]);
+  },
+  listForwards: function (onSuccess, onFail) {
+    cordova.exec(onSuccess, onFail, 'Sftp', 'listForwards', []);
+  },
+  watch: function (path, listener, onFail) {
+    var id = parseInt(Date.now() + Math.random() * 1000000) + '';
+    cordova.exec(listener, onFail, 'Sftp', 'watch', [path, id]);
+    return {
+      unwatch: function () {
+        cordova.exec(null, null, 'Sftp', 'unwatch', [id]);
+      }
+    };
+  },
   pwd: function (onSuccess, onFail) {
     cordova.exec(onSuccess, onFail, 'Sftp', 'pwd', []);
   },
@@ -16,14 +16,20 @@ import android.webkit.MimeTypeMap;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.Locale;
 import com.foxdebug.acode.R;
 
 public class AlpineDocumentProvider extends DocumentsProvider {
     
     private static final String ALL_MIME_TYPES = "*/*";
+    private static final int MAX_SEARCH_RESULTS = 50;
+    // How long a search may wait for the index and scan it before returning
+    // what it has
+    private static final long SEARCH_BUDGET_MS = 500;
+
+    private FileIndex index;
+    private ThumbnailCache thumbnails;
 
     
     // The default columns to return information about a root if no specific
@@ -98,6 +104,15 @@ public class AlpineDocumentProvider extends DocumentsProvider {
             projection != null ? projection : DEFAULT_DOCUMENT_PROJECTION
         );
         File parent = getFileForDocId(parentDocumentId);
+        Collection<FileIndex.Entry> entries = index.list(parent);
+        if (entries != null) {
+            for (FileIndex.Entry entry : entries) {
+                includeEntry(result, null, entry);
+            }
+            return result;
+        }
+
+        index.ensureBuilding();
         File[] files = parent.listFiles();
         if (files != null) {
             for (File file : files) {
@@ -127,12 +142,31 @@ public class AlpineDocumentProvider extends DocumentsProvider {
         CancellationSignal signal
     ) throws FileNotFoundException {
         File file = getFileForDocId(documentId);
+        File thumbnail = null;
+        try {
+            thumbnail = thumbnails.get(file, sizeHint, signal);
+        } catch (IOException e) {
+            Log.w("DocumentsProvider", "Unable to create thumbnail of " + documentId, e);
+        }
+
+        if (thumbnail != null) {
+            try {
+                ParcelFileDescriptor pfd = ParcelFileDescriptor.open(thumbnail, ParcelFileDescriptor.MODE_READ_ONLY);
+                return new AssetFileDescriptor(pfd, 0, thumbnail.length());
+            } catch (FileNotFoundException e) {
+                // Evicted by another request in the meantime
+            }
+        }
+
+        // Fall back to the image itself when there's no thumbnail
         ParcelFileDescriptor pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
         return new AssetFileDescriptor(pfd, 0, file.length());
     }
 
     @Override
     public boolean onCreate() {
+        index = new FileIndex(new File(getContext().getFilesDir(), "public"));
+        thumbnails = new ThumbnailCache(new File(getContext().getCacheDir(), "alpine-thumbnails"));
         return true;
     }
 
@@ -192,37 +226,16 @@ public class AlpineDocumentProvider extends DocumentsProvider {
             projection != null ? projection : DEFAULT_DOCUMENT_PROJECTION
         );
         File parent = getFileForDocId(rootId);
+        String prefix = parent.getAbsolutePath() + File.separator;
 
-        // This example implementation searches file names for the query and doesn't rank search
-        // results, so we can stop as soon as we find a sufficient number of matches.  Other
-        // implementations might rank results and use other data about files, rather than the file
-        // name, to produce a match.
-        LinkedList<File> pending = new LinkedList<>();
-        pending.add(parent);
-
-        final int MAX_SEARCH_RESULTS = 50;
-        while (!pending.isEmpty() && result.getCount() < MAX_SEARCH_RESULTS) {
-            File file = pending.removeFirst();
-            // Avoid directories outside the $HOME directory linked with symlinks (to avoid e.g. search
-            // through the whole SD card).
-            boolean isInsideHome;
-            try {
-                isInsideHome = file.getCanonicalPath().startsWith(BASE_DIR.getCanonicalPath());
-            } catch (IOException e) {
-                isInsideHome = true;
-            }
-            if (isInsideHome) {
-                if (file.isDirectory()) {
-                    File[] files = file.listFiles();
-                    if (files != null) {
-                        Collections.addAll(pending, files);
-                    }
-                } else {
-                    if (file.getName().toLowerCase(Locale.getDefault()).contains(query)) {
-                        includeFile(result, null, file);
-                    }
-                }
-            }
+        // Names come from the index, which doesn't follow symlinks (to avoid
+        // e.g. searching through the whole SD card).
+        for (FileIndex.Entry entry : index.search(query, Integer.MAX_VALUE, SEARCH_BUDGET_MS)) {
+            if (result.getCount() >= MAX_SEARCH_RESULTS) break;
+            if (entry.isDirectory || !entry.file.getAbsolutePath().startsWith(prefix)) continue;
+            // Entries in unobserved directories may be out of date
+            FileIndex.Entry current = index.get(entry.file);
+            includeEntry(result, null, current != null ? current : new FileIndex.Entry(entry.file));
         }
 
         return result;
@@ -241,14 +254,43 @@ public class AlpineDocumentProvider extends DocumentsProvider {
      * @param file   the File object representing the desired file (may be null if given docID)
      */
     private void includeFile(MatrixCursor result, String docId, File file) throws FileNotFoundException {
-        if (docId == null) {
-            docId = getDocIdForFile(file);
-        } else {
+        if (docId != null) {
             file = getFileForDocId(docId);
         }
+        FileIndex.Entry entry = index.get(file);
+        includeEntry(result, docId, entry != null ? entry : new FileIndex.Entry(file));
+    }
+
+    /**
+     * Add a file to a cursor using the metadata cached in its index entry.
+     * Mime type and flags are worked out once per entry.
+     */
+    private void includeEntry(MatrixCursor result, String docId, FileIndex.Entry entry) {
+        File file = entry.file;
+        String mimeType = entry.mimeType;
+        if (mimeType == null) {
+            mimeType = entry.isDirectory ? DocumentsContract.Document.MIME_TYPE_DIR : getMimeType(file);
+            entry.mimeType = mimeType;
+        }
+        int flags = entry.flags;
+        if (flags == -1) {
+            flags = getFlags(file, entry.isDirectory, mimeType);
+            entry.flags = flags;
+        }
+
+        MatrixCursor.RowBuilder row = result.newRow();
+        row.add(DocumentsContract.Document.COLUMN_DOCUMENT_ID, docId != null ? docId : getDocIdForFile(file));
+        row.add(DocumentsContract.Document.COLUMN_DISPLAY_NAME, entry.name);
+        row.add(DocumentsContract.Document.COLUMN_SIZE, entry.size);
+        row.add(DocumentsContract.Document.COLUMN_MIME_TYPE, mimeType);
+        row.add(DocumentsContract.Document.COLUMN_LAST_MODIFIED, entry.lastModified);
+        row.add(DocumentsContract.Document.COLUMN_FLAGS, flags);
+        row.add(DocumentsContract.Document.COLUMN_ICON, R.mipmap.ic_launcher);
+    }
 
+    private static int getFlags(File file, boolean isDirectory, String mimeType) {
         int flags = 0;
-        if (file.isDirectory()) {
+        if (isDirectory) {
             if (file.canWrite()) {
                 flags = flags | DocumentsContract.Document.FLAG_DIR_SUPPORTS_CREATE;
             }
@@ -259,21 +301,10 @@ public class AlpineDocumentProvider extends DocumentsProvider {
         if (parentFile != null && parentFile.canWrite()) {
             flags = flags | DocumentsContract.Document.FLAG_SUPPORTS_DELETE;
         }
-
-        String displayName = file.getName();
-        String mimeType = getMimeType(file);
         if (mimeType.startsWith("image/")) {
             flags = flags | DocumentsContract.Document.FLAG_SUPPORTS_THUMBNAIL;
         }
-
-        MatrixCursor.RowBuilder row = result.newRow();
-        row.add(DocumentsContract.Document.COLUMN_DOCUMENT_ID, docId);
-        row.add(DocumentsContract.Document.COLUMN_DISPLAY_NAME, displayName);
-        row.add(DocumentsContract.Document.COLUMN_SIZE, file.length());
-        row.add(DocumentsContract.Document.COLUMN_MIME_TYPE, mimeType);
-        row.add(DocumentsContract.Document.COLUMN_LAST_MODIFIED, file.lastModified());
-        row.add(DocumentsContract.Document.COLUMN_FLAGS, flags);
-        row.add(DocumentsContract.Document.COLUMN_ICON, R.mipmap.ic_launcher);
+        return flags;
     }
 
     public static boolean isDocumentProviderEnabled(Context context) {
@@ -6,7 +6,13 @@ import org.json.*;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import android.content.Context;
+import android.system.OsConstants;
+import android.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import android.app.Activity;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
@@ -17,6 +23,66 @@ public class Executor extends CordovaPlugin {
     private final Map<String, OutputStream> processInputs = new ConcurrentHashMap<>();
     private final Map<String, CallbackContext> processCallbacks = new ConcurrentHashMap<>();
 
+    // Chunked output: bytes are collected per stream and sent as one binary
+    // message, prefixed with the stream tag, once FLUSH_THRESHOLD bytes are
+    // pending or FLUSH_WINDOW_MS passed since the first pending byte.
+    private static final byte STDOUT_TAG = 1;
+    private static final byte STDERR_TAG = 2;
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int FLUSH_THRESHOLD = 32 * 1024;
+    private static final long FLUSH_WINDOW_MS = 16;
+    private static final long OUTPUT_DRAIN_TIMEOUT_MS = 1000;
+    private static final int DEFAULT_MAX_EXEC_OUTPUT = 4 * 1024 * 1024;
+    private static final long KILL_GRACE_MS = 2000;
+
+    // Warm sandbox shells for alpine exec, started on first use
+    private static final int DEFAULT_SHELL_POOL_SIZE = 2;
+    private SandboxShellPool shellPool;
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    // Process waiters and output readers run on their own pool instead of
+    // raw threads and Cordova's shared pool, which stays free for plugin calls.
+    private final ExecutorService ioPool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "Executor-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // With flow control, at most this much output may be sent without JS
+    // acknowledging it. Beyond that the readers stop draining the pipes, so
+    // the process blocks on its next write until JS catches up.
+    private static final long MAX_UNACKED_OUTPUT = 1024 * 1024;
+    private final Map<String, FlowControl> flows = new ConcurrentHashMap<>();
+
+    // Tty device of each PTY session, written by the session itself
+    private final Map<String, File> ptyFiles = new ConcurrentHashMap<>();
+
+    // Accounting for started processes, and limits applied to them. A limit
+    // of 0 means unlimited; start options can set maxWallTime/maxOutput
+    // per process.
+    private final Map<String, ProcessInfo> processInfo = new ConcurrentHashMap<>();
+    private volatile int maxProcesses = 0;
+    // Slots taken by running processes and ones being started, so
+    // concurrent starts can't exceed maxProcesses
+    private final AtomicInteger processSlots = new AtomicInteger();
+    private volatile long maxWallTime = 0;
+    private volatile long maxOutputBytes = 0;
+
+    // Recent output of each process, replayed by "attach" to a UI that was
+    // reloaded. Output sent while no callback is attached only lands here.
+    // The scrollback of a few finished processes is kept as well, so their
+    // exit isn't missed either.
+    private static final int DEFAULT_SCROLLBACK_BYTES = 256 * 1024;
+    private static final int MAX_FINISHED_SCROLLBACK = 8;
+    private final Map<String, Scrollback> scrollback = new ConcurrentHashMap<>();
+    private final Map<String, Scrollback> finishedScrollback = Collections.synchronizedMap(
+            new LinkedHashMap<String, Scrollback>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Scrollback> eldest) {
+                    return size() > MAX_FINISHED_SCROLLBACK;
+                }
+            });
+
     private Context context;
 
 
@@ -30,25 +96,84 @@ public class Executor extends CordovaPlugin {
   
 
 
+    /**
+     * The page was reloaded, so its callbacks are gone. Processes keep
+     * running into their scrollback until the new page attaches again.
+     */
+    @Override
+    public void onReset() {
+        processCallbacks.clear();
+        for (FlowControl flow : flows.values()) {
+            flow.reset();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        for (FlowControl flow : flows.values()) {
+            flow.close();
+        }
+        synchronized (this) {
+            if (shellPool != null) {
+                shellPool.close();
+            }
+        }
+        flushScheduler.shutdownNow();
+        ioPool.shutdownNow();
+        super.onDestroy();
+    }
+
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
         switch (action) {
             case "start":
                 String cmdStart = args.getString(0);
                 String pid = UUID.randomUUID().toString();
-                startProcess(pid, cmdStart,args.getString(1), callbackContext);
+                JSONObject options = args.optJSONObject(2);
+                startProcess(pid, cmdStart,args.getString(1), options != null ? options : new JSONObject(), callbackContext);
+                return true;
+            case "attach":
+                attach(args.getString(0), args.optLong(1, 0), callbackContext);
+                return true;
+            case "resize":
+                resizePty(args.getString(0), args.getInt(1), args.getInt(2), callbackContext);
+                return true;
+            case "ack":
+                FlowControl flow = flows.get(args.getString(0));
+                if (flow != null) {
+                    flow.acknowledge(args.getLong(1));
+                }
+                callbackContext.success();
                 return true;
             case "write":
                 String pidWrite = args.getString(0);
                 String input = args.getString(1);
-                writeToProcess(pidWrite, input, callbackContext);
+                writeToProcess(pidWrite, input, args.optJSONObject(2), callbackContext);
                 return true;
             case "stop":
                 String pidStop = args.getString(0);
                 stopProcess(pidStop, callbackContext);
                 return true;
             case "exec":
-                exec(args.getString(0),args.getString(1), callbackContext);
+                JSONObject execOptions = args.optJSONObject(2);
+                exec(args.getString(0),args.getString(1), execOptions != null ? execOptions : new JSONObject(), callbackContext);
+                return true;
+            case "shellPool":
+                getShellPool().setSize(args.getInt(0));
+                callbackContext.success();
+                return true;
+            case "listProcesses":
+                listProcesses(callbackContext);
+                return true;
+            case "stats":
+                processStats(args.getString(0), callbackContext);
+                return true;
+            case "setLimits":
+                JSONObject limits = args.getJSONObject(0);
+                maxProcesses = limits.optInt("maxProcesses", maxProcesses);
+                maxWallTime = limits.optLong("maxWallTime", maxWallTime);
+                maxOutputBytes = limits.optLong("maxOutput", maxOutputBytes);
+                callbackContext.success();
                 return true;
             case "isRunning":
                 isProcessRunning(args.getString(0), callbackContext);
@@ -67,56 +192,50 @@ public class Executor extends CordovaPlugin {
         }
     }
 
-    private void exec(String cmd,String alpine, CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(() -> {
+    /**
+     * Runs a command to completion. stdout and stderr are drained at the same
+     * time into capped buffers, so a chatty stderr can't fill its pipe and
+     * stall the process. Options: timeout (ms, the process is killed when it
+     * runs longer), maxOutput (bytes kept per stream) and structured, which
+     * resolves with {stdout, stderr, exitCode, timedOut, truncated} instead
+     * of stdout on success and stderr on failure. Sandbox commands run on a
+     * warm shell from the pool when one is idle, unless pooled is false.
+     */
+    private void exec(String cmd,String alpine, JSONObject options, CallbackContext callbackContext) {
+        long timeout = options.optLong("timeout", 0);
+        int maxOutput = options.optInt("maxOutput", DEFAULT_MAX_EXEC_OUTPUT);
+        boolean structured = options.optBoolean("structured", false);
+
+        boolean pooled = alpine.equals("true") && options.optBoolean("pooled", true);
+
+        ioPool.execute(() -> {
         try {
             if (cmd != null && !cmd.isEmpty()) {
-                String xcmd = cmd;
-                if(alpine.equals("true")){
-                    xcmd = "source $PREFIX/init-sandbox.sh "+cmd;
-                }
-                
-                ProcessBuilder builder = new ProcessBuilder("sh", "-c", xcmd);
-
-                // Set environment variables
-                Map<String, String> env = builder.environment();
-                env.put("PREFIX", context.getFilesDir().getAbsolutePath());
-                env.put("NATIVE_DIR", context.getApplicationInfo().nativeLibraryDir);
-
-                try {
-                    int target = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).applicationInfo.targetSdkVersion;
-                    env.put("FDROID", String.valueOf(target <= 28));
-                } catch (PackageManager.NameNotFoundException e) {
-                    e.printStackTrace();
-                }
-
-
-                Process process = builder.start();
-
-                // Capture stdout
-                BufferedReader stdOutReader = new BufferedReader(
-                        new InputStreamReader(process.getInputStream()));
-                StringBuilder stdOut = new StringBuilder();
-                String line;
-                while ((line = stdOutReader.readLine()) != null) {
-                    stdOut.append(line).append("\n");
-                }
-
-                // Capture stderr
-                BufferedReader stdErrReader = new BufferedReader(
-                        new InputStreamReader(process.getErrorStream()));
-                StringBuilder stdErr = new StringBuilder();
-                while ((line = stdErrReader.readLine()) != null) {
-                    stdErr.append(line).append("\n");
+                ExecResult result = pooled ? getShellPool().run(cmd, timeout, maxOutput) : null;
+                if (result == null) {
+                    String xcmd = cmd;
+                    if(alpine.equals("true")){
+                        xcmd = "source $PREFIX/init-sandbox.sh "+cmd;
+                    }
+                    result = runProcess(xcmd, timeout, maxOutput);
                 }
 
-                int exitCode = process.waitFor();
-                if (exitCode == 0) {
-                    callbackContext.success(stdOut.toString().trim());
+                if (structured) {
+                    JSONObject json = new JSONObject();
+                    json.put("stdout", result.stdout);
+                    json.put("stderr", result.stderr);
+                    json.put("exitCode", result.exitCode);
+                    json.put("timedOut", result.timedOut);
+                    json.put("truncated", result.truncated);
+                    callbackContext.success(json);
+                } else if (result.exitCode == 0 && !result.timedOut) {
+                    callbackContext.success(result.stdout.trim());
                 } else {
-                    String errorOutput = stdErr.toString().trim();
-                    if (errorOutput.isEmpty()) {
-                        errorOutput = "Command exited with code: " + exitCode;
+                    String errorOutput = result.stderr.trim();
+                    if (result.timedOut) {
+                        errorOutput = "Command timed out after " + timeout + "ms";
+                    } else if (errorOutput.isEmpty()) {
+                        errorOutput = "Command exited with code: " + result.exitCode;
                     }
                     callbackContext.error(errorOutput);
                 }
@@ -130,64 +249,282 @@ public class Executor extends CordovaPlugin {
         });
     }
 
-    private void startProcess(String pid, String cmd,String alpine, CallbackContext callbackContext) {
-        cordova.getThreadPool().execute(() -> {
-            try {
-                String xcmd = cmd;
-                if(alpine.equals("true")){
-                    xcmd = "source $PREFIX/init-sandbox.sh "+cmd;
+    private ExecResult runProcess(String xcmd, long timeout, int maxOutput) throws IOException, InterruptedException {
+        Process process = buildProcess(xcmd).start();
+        process.getOutputStream().close();
+
+        BoundedCapture stdOut = new BoundedCapture(process.getInputStream(), maxOutput);
+        BoundedCapture stdErr = new BoundedCapture(process.getErrorStream(), maxOutput);
+        Future<?> stdOutDone = ioPool.submit(stdOut);
+        Future<?> stdErrDone = ioPool.submit(stdErr);
+
+        ExecResult result = new ExecResult();
+        if (timeout > 0) {
+            if (!process.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+                result.timedOut = true;
+                process.destroy();
+                if (!process.waitFor(KILL_GRACE_MS, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
                 }
-                ProcessBuilder builder = new ProcessBuilder("sh", "-c", xcmd);
+            }
+        }
+        result.exitCode = process.waitFor();
+        awaitOutput(stdOutDone);
+        awaitOutput(stdErrDone);
+
+        result.stdout = stdOut.toString();
+        result.stderr = stdErr.toString();
+        result.truncated = stdOut.isTruncated() || stdErr.isTruncated();
+        return result;
+    }
 
-                // Set environment variables
-                Map<String, String> env = builder.environment();
-                env.put("PREFIX", context.getFilesDir().getAbsolutePath());
-                env.put("NATIVE_DIR", context.getApplicationInfo().nativeLibraryDir);
+    static class ExecResult {
+        String stdout = "";
+        String stderr = "";
+        int exitCode;
+        boolean timedOut = false;
+        boolean truncated = false;
+    }
 
-                try {
-                    int target = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).applicationInfo.targetSdkVersion;
-                    env.put("FDROID", String.valueOf(target <= 28));
-                } catch (PackageManager.NameNotFoundException e) {
-                    e.printStackTrace();
+    private synchronized SandboxShellPool getShellPool() {
+        if (shellPool == null) {
+            shellPool = new SandboxShellPool(DEFAULT_SHELL_POOL_SIZE, ioPool, cmd -> buildProcess(cmd).start());
+        }
+        return shellPool;
+    }
+
+    /**
+     * Reads a stream to the end, keeping at most limit bytes. The rest is
+     * read and dropped so the writer never blocks on a full pipe.
+     */
+    private static class BoundedCapture implements Runnable {
+        private final InputStream inputStream;
+        private final int limit;
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private volatile boolean truncated = false;
+
+        BoundedCapture(InputStream inputStream, int limit) {
+            this.inputStream = inputStream;
+            this.limit = limit;
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            try (InputStream in = inputStream) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    synchronized (output) {
+                        int room = limit - output.size();
+                        if (read > room) truncated = true;
+                        if (room > 0) output.write(buffer, 0, Math.min(read, room));
+                    }
                 }
+            } catch (IOException ignored) {
+            }
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        @Override
+        public String toString() {
+            synchronized (output) {
+                return new String(output.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private ProcessBuilder buildProcess(String xcmd) {
+        ProcessBuilder builder = new ProcessBuilder("sh", "-c", xcmd);
+
+        // Set environment variables
+        Map<String, String> env = builder.environment();
+        env.put("PREFIX", context.getFilesDir().getAbsolutePath());
+        env.put("NATIVE_DIR", context.getApplicationInfo().nativeLibraryDir);
+
+        try {
+            int target = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).applicationInfo.targetSdkVersion;
+            env.put("FDROID", String.valueOf(target <= 28));
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        }
+        return builder;
+    }
 
+    private void startProcess(String pid, String cmd,String alpine, JSONObject options, CallbackContext callbackContext) {
+        boolean chunked = options.optBoolean("chunked", false);
+        boolean flowControl = options.optBoolean("flowControl", false);
+        boolean pty = options.optBoolean("pty", false);
+        long wallTime = options.optLong("maxWallTime", maxWallTime);
+        long maxOutput = options.optLong("maxOutput", maxOutputBytes);
+        int scrollbackBytes = options.optInt("scrollback", DEFAULT_SCROLLBACK_BYTES);
+
+        ioPool.execute(() -> {
+            if (!reserveProcessSlot()) {
+                callbackContext.error("Too many processes (limit " + maxProcesses + ")");
+                return;
+            }
 
+            boolean started = false;
+            try {
+
+                String xcmd = cmd;
+                File ttyFile = null;
+                if (pty) {
+                    ttyFile = new File(context.getFilesDir(), "tmp/" + pid + ".tty");
+                    ttyFile.getParentFile().mkdirs();
+                    xcmd = ptyCommand(cmd, ttyFile, options.optInt("rows", 24), options.optInt("cols", 80));
+                }
+                if(alpine.equals("true")){
+                    xcmd = "source $PREFIX/init-sandbox.sh "+xcmd;
+                }
+                ProcessBuilder builder = buildProcess(xcmd);
+                if (pty) {
+                    builder.environment().put("TERM", "xterm-256color");
+                }
 
                 Process process = builder.start();
 
                 processes.put(pid, process);
+                started = true;
+                ProcessInfo info = new ProcessInfo(process, cmd, pty, maxOutput);
+                processInfo.put(pid, info);
+                if (wallTime > 0) {
+                    info.wallTimer = flushScheduler.schedule(() -> kill(pid, "maxWallTime"), wallTime, TimeUnit.MILLISECONDS);
+                }
+                if (ttyFile != null) {
+                    ptyFiles.put(pid, ttyFile);
+                }
                 processInputs.put(pid, process.getOutputStream());
+                if (scrollbackBytes > 0) {
+                    scrollback.put(pid, new Scrollback(scrollbackBytes, chunked));
+                }
                 processCallbacks.put(pid, callbackContext);
+                FlowControl flow = flowControl ? new FlowControl() : null;
+                if (flow != null) {
+                    flows.put(pid, flow);
+                }
 
                 PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, pid);
                 pluginResult.setKeepCallback(true);
                 callbackContext.sendPluginResult(pluginResult);
 
-                // stdout thread
-                new Thread(() -> streamOutput(process.getInputStream(), pid, "stdout")).start();
-                // stderr thread
-                new Thread(() -> streamOutput(process.getErrorStream(), pid, "stderr")).start();
+                Future<?> stdout;
+                Future<?> stderr;
+                if (chunked) {
+                    stdout = ioPool.submit(new ChunkedOutput(process.getInputStream(), pid, STDOUT_TAG, flow));
+                    stderr = ioPool.submit(new ChunkedOutput(process.getErrorStream(), pid, STDERR_TAG, flow));
+                } else {
+                    stdout = ioPool.submit(() -> streamOutput(process.getInputStream(), pid, "stdout", flow));
+                    stderr = ioPool.submit(() -> streamOutput(process.getErrorStream(), pid, "stderr", flow));
+                }
 
                 int exitCode = process.waitFor();
-                sendPluginMessage(pid, "exit:" + exitCode);
+                // Deliver the remaining output before the exit code, unless a
+                // background child keeps the pipes open
+                awaitOutput(stdout, flow);
+                awaitOutput(stderr, flow);
+                sendStatus(pid, "exit:" + exitCode);
                 cleanup(pid);
             } catch (Exception e) {
+                if (!started) processSlots.decrementAndGet();
                 callbackContext.error("Failed to start process: " + e.getMessage());
             }
         });
     }
 
-    private void writeToProcess(String pid, String input, CallbackContext callbackContext) {
+    private boolean reserveProcessSlot() {
+        while (true) {
+            int used = processSlots.get();
+            int limit = maxProcesses;
+            if (limit > 0 && used >= limit) return false;
+            if (processSlots.compareAndSet(used, used + 1)) return true;
+        }
+    }
+
+    /**
+     * Wraps a command so it runs on a pseudo terminal allocated by script(1)
+     * (busybox in the sandbox). The child records its tty device in ttyFile
+     * so the window size can be changed later with stty from outside.
+     */
+    private String ptyCommand(String cmd, File ttyFile, int rows, int cols) {
+        String setup = "tty > " + shellQuote(ttyFile.getAbsolutePath())
+                + "; stty rows " + rows + " cols " + cols + " 2>/dev/null"
+                + "; exec sh -c " + shellQuote(cmd);
+        return "script -q -c " + shellQuote(setup) + " /dev/null";
+    }
+
+    private static String shellQuote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    private void resizePty(String pid, int cols, int rows, CallbackContext callbackContext) {
+        File ttyFile = ptyFiles.get(pid);
+        if (ttyFile == null) {
+            callbackContext.error("No such PTY session");
+            return;
+        }
+
+        ioPool.execute(() -> {
+            try {
+                String tty = readTty(ttyFile);
+                if (tty == null) {
+                    callbackContext.error("PTY not ready");
+                    return;
+                }
+
+                // The kernel sends SIGWINCH to the foreground job of the tty
+                Process stty = new ProcessBuilder("stty", "-F", tty, "rows", String.valueOf(rows), "cols", String.valueOf(cols))
+                        .redirectErrorStream(true)
+                        .start();
+                if (stty.waitFor() == 0) {
+                    callbackContext.success("Resized");
+                } else {
+                    callbackContext.error("stty exited with code " + stty.exitValue());
+                }
+            } catch (IOException | InterruptedException e) {
+                callbackContext.error("Resize error: " + e.getMessage());
+            }
+        });
+    }
+
+    private String readTty(File ttyFile) throws IOException {
+        if (!ttyFile.exists()) return null;
+        try (BufferedReader reader = new BufferedReader(new FileReader(ttyFile))) {
+            String tty = reader.readLine();
+            return tty != null && tty.startsWith("/dev/") ? tty.trim() : null;
+        }
+    }
+
+    /**
+     * Writes to a process's stdin. By default the input is a line of text;
+     * with "raw" no newline is added, "binary" means the input is base64
+     * (how Cordova passes an ArrayBuffer) and "charset" picks the text encoding.
+     */
+    private void writeToProcess(String pid, String input, JSONObject options, CallbackContext callbackContext) {
+        if (options == null) options = new JSONObject();
         try {
             OutputStream os = processInputs.get(pid);
             if (os != null) {
-                os.write((input + "\n").getBytes());
-                os.flush();
+                byte[] bytes;
+                if (options.optBoolean("binary", false)) {
+                    bytes = Base64.decode(input, Base64.DEFAULT);
+                } else {
+                    String text = options.optBoolean("raw", false) ? input : input + "\n";
+                    bytes = text.getBytes(Charset.forName(options.optString("charset", "UTF-8")));
+                }
+                // Writes from the bridge and from other threads must not interleave
+                synchronized (os) {
+                    os.write(bytes);
+                    os.flush();
+                }
                 callbackContext.success("Written to process");
             } else {
                 callbackContext.error("Process not found or closed");
             }
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             callbackContext.error("Write error: " + e.getMessage());
         }
     }
@@ -195,7 +532,7 @@ public class Executor extends CordovaPlugin {
     private void stopProcess(String pid, CallbackContext callbackContext) {
         Process process = processes.get(pid);
         if (process != null) {
-            process.destroy();
+            terminate(pid, process);
             cleanup(pid);
             callbackContext.success("Process terminated");
         } else {
@@ -203,6 +540,120 @@ public class Executor extends CordovaPlugin {
         }
     }
 
+    /**
+     * Stops a process together with everything it started. The tree is
+     * collected first, since children are reparented once their parent
+     * exits; whatever ignores SIGTERM is killed after a grace period.
+     */
+    private void terminate(String pid, Process process) {
+        ProcessInfo info = processInfo.get(pid);
+        int osPid = info != null ? info.osPid : ProcessTree.getPid(process);
+        List<Integer> tree = osPid > 0 ? ProcessTree.collect(osPid) : Collections.emptyList();
+
+        ProcessTree.signal(tree, OsConstants.SIGTERM);
+        process.destroy();
+        flushScheduler.schedule(() -> {
+            ProcessTree.signal(tree, OsConstants.SIGKILL);
+            process.destroyForcibly();
+        }, KILL_GRACE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops a process that went over a limit. The exit message follows as
+     * usual once it is gone.
+     */
+    private void kill(String pid, String limit) {
+        Process process = processes.get(pid);
+        if (process == null) return;
+        sendStatus(pid, "killed:" + limit);
+        terminate(pid, process);
+    }
+
+    private void countOutput(String pid, long length) {
+        ProcessInfo info = processInfo.get(pid);
+        if (info == null) return;
+        long total = info.outputBytes.addAndGet(length);
+        if (info.maxOutput > 0 && total > info.maxOutput && !info.killed) {
+            info.killed = true;
+            kill(pid, "maxOutput");
+        }
+    }
+
+    private void listProcesses(CallbackContext callbackContext) {
+        ioPool.execute(() -> {
+            try {
+                JSONArray result = new JSONArray();
+                for (Map.Entry<String, ProcessInfo> entry : processInfo.entrySet()) {
+                    result.put(entry.getValue().toJSON(entry.getKey()));
+                }
+                callbackContext.success(result);
+            } catch (JSONException e) {
+                callbackContext.error(e.getMessage());
+            }
+        });
+    }
+
+    private void processStats(String pid, CallbackContext callbackContext) {
+        ProcessInfo info = processInfo.get(pid);
+        if (info == null) {
+            callbackContext.error("No such process");
+            return;
+        }
+
+        ioPool.execute(() -> {
+            try {
+                callbackContext.success(info.toJSON(pid));
+            } catch (JSONException e) {
+                callbackContext.error(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * What is known about a started process. CPU time and memory are summed
+     * over the whole tree from /proc when asked for.
+     */
+    private static class ProcessInfo {
+        final Process process;
+        final int osPid;
+        final String command;
+        final boolean pty;
+        final long maxOutput;
+        final long startedAt = System.currentTimeMillis();
+        final AtomicLong outputBytes = new AtomicLong();
+        volatile boolean killed = false;
+        ScheduledFuture<?> wallTimer;
+
+        ProcessInfo(Process process, String command, boolean pty, long maxOutput) {
+            this.process = process;
+            this.osPid = ProcessTree.getPid(process);
+            this.command = command;
+            this.pty = pty;
+            this.maxOutput = maxOutput;
+        }
+
+        JSONObject toJSON(String id) throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("pid", osPid);
+            json.put("command", command);
+            json.put("pty", pty);
+            json.put("alive", process.isAlive());
+            json.put("startedAt", startedAt);
+            json.put("wallTimeMs", System.currentTimeMillis() - startedAt);
+            json.put("outputBytes", outputBytes.get());
+
+            if (osPid > 0) {
+                ProcessTree.Usage usage = ProcessTree.usage(ProcessTree.collect(osPid));
+                json.put("processes", usage.processes);
+                json.put("threads", usage.threads);
+                json.put("cpuTimeMs", usage.cpuTimeMs);
+                json.put("rssBytes", usage.rssBytes);
+            }
+            return json;
+        }
+    }
+
     private void isProcessRunning(String pid, CallbackContext callbackContext) {
         Process process = processes.get(pid);
 
@@ -219,28 +670,327 @@ public class Executor extends CordovaPlugin {
     }
 
 
-    private void streamOutput(InputStream inputStream, String pid, String streamType) {
+    private void awaitOutput(Future<?> output) throws InterruptedException {
+        awaitOutput(output, null);
+    }
+
+    /**
+     * Waits for a reader to reach the end of its stream. The timeout is for
+     * background children that keep the pipe open; a reader that is only
+     * waiting for JS to acknowledge output is waited for as long as it takes,
+     * so nothing still in the pipe arrives after the exit message.
+     */
+    private void awaitOutput(Future<?> output, FlowControl flow) throws InterruptedException {
+        while (true) {
+            try {
+                output.get(OUTPUT_DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (ExecutionException e) {
+                return;
+            } catch (TimeoutException e) {
+                if (flow == null || !flow.isWaiting()) return;
+            }
+        }
+    }
+
+    private void streamOutput(InputStream inputStream, String pid, String streamType, FlowControl flow) {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
             String line;
-            while ((line = reader.readLine()) != null) {
-                sendPluginMessage(pid, streamType + ":" + line);
+            while (awaitCapacity(flow) && (line = reader.readLine()) != null) {
+                String message = streamType + ":" + line;
+                if (sendOutput(pid, streamType, line, message) && flow != null) {
+                    flow.sent(message.length());
+                }
+                countOutput(pid, line.length() + 1);
             }
         } catch (IOException ignored) {
         }
     }
 
-    private void sendPluginMessage(String pid, String message) {
+    private boolean awaitCapacity(FlowControl flow) {
+        return flow == null || flow.awaitCapacity();
+    }
+
+    /**
+     * Counts output sent to JS but not yet acknowledged through the "ack"
+     * action. Readers wait here before reading more, which leaves the data
+     * in the pipe and pauses the writing process instead of buffering it.
+     */
+    private static class FlowControl {
+        private long unacknowledged = 0;
+        private boolean closed = false;
+        private int waiting = 0;
+
+        synchronized void sent(long length) {
+            unacknowledged += length;
+        }
+
+        synchronized void acknowledge(long length) {
+            unacknowledged = Math.max(0, unacknowledged - length);
+            notifyAll();
+        }
+
+        synchronized boolean awaitCapacity() {
+            waiting++;
+            try {
+                while (!closed && unacknowledged >= MAX_UNACKED_OUTPUT) {
+                    wait();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting--;
+            }
+        }
+
+        /**
+         * Whether a reader is currently held back by unacknowledged output.
+         */
+        synchronized boolean isWaiting() {
+            return waiting > 0 && !closed && unacknowledged >= MAX_UNACKED_OUTPUT;
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        /**
+         * Forgets unacknowledged output, which nobody is going to acknowledge
+         * after the page went away.
+         */
+        synchronized void reset() {
+            unacknowledged = 0;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Reads a process stream into a reusable buffer and sends the raw bytes
+     * in chunks, so partial lines and escape sequences arrive untouched and
+     * a noisy process costs one bridge message per chunk instead of per line.
+     */
+    private class ChunkedOutput implements Runnable {
+        private final InputStream inputStream;
+        private final String pid;
+        private final byte tag;
+        private final FlowControl flow;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream(FLUSH_THRESHOLD + 1);
+        private ScheduledFuture<?> scheduledFlush;
+
+        ChunkedOutput(InputStream inputStream, String pid, byte tag, FlowControl flow) {
+            this.inputStream = inputStream;
+            this.pid = pid;
+            this.tag = tag;
+            this.flow = flow;
+            pending.write(tag);
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            try (InputStream in = inputStream) {
+                int read;
+                while (awaitCapacity(flow) && (read = in.read(buffer)) != -1) {
+                    append(buffer, read);
+                }
+            } catch (IOException ignored) {
+            }
+            flush();
+        }
+
+        private synchronized void append(byte[] buffer, int length) {
+            pending.write(buffer, 0, length);
+            if (pending.size() > FLUSH_THRESHOLD) {
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = flushScheduler.schedule(this::flush, FLUSH_WINDOW_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private synchronized void flush() {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            // Only the tag byte
+            if (pending.size() <= 1) return;
+
+            byte[] chunk = pending.toByteArray();
+            if (sendOutput(pid, chunk) && flow != null) {
+                flow.sent(chunk.length);
+            }
+            countOutput(pid, chunk.length - 1);
+            pending.reset();
+            pending.write(tag);
+        }
+    }
+
+    /**
+     * Records a chunk (tag byte and output) in the scrollback and sends it to
+     * the attached callback, if any. Returns whether it was sent.
+     */
+    private boolean sendOutput(String pid, byte[] chunk) {
+        Scrollback output = scrollback.get(pid);
+        if (output == null) {
+            return sendPluginMessage(pid, chunk);
+        }
+        synchronized (output) {
+            output.ring.append(chunk[0], chunk, 1, chunk.length - 1);
+            return sendPluginMessage(pid, chunk);
+        }
+    }
+
+    private boolean sendOutput(String pid, String streamType, String line, String message) {
+        Scrollback output = scrollback.get(pid);
+        if (output == null) {
+            return sendPluginMessage(pid, message);
+        }
+        synchronized (output) {
+            byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            byte tag = streamType.equals("stdout") ? STDOUT_TAG : STDERR_TAG;
+            output.ring.append(tag, bytes, 0, bytes.length);
+            return sendPluginMessage(pid, message);
+        }
+    }
+
+    /**
+     * Sends a "killed:" or "exit:" message, keeping it for replay. It may
+     * come after cleanup() when the process was stopped through "stop".
+     */
+    private void sendStatus(String pid, String message) {
+        Scrollback output = scrollback.get(pid);
+        if (output == null) {
+            output = finishedScrollback.get(pid);
+        }
+        if (output == null) {
+            sendPluginMessage(pid, message);
+            return;
+        }
+        synchronized (output) {
+            output.status.add(message);
+            sendPluginMessage(pid, message);
+        }
+    }
+
+    private boolean sendPluginMessage(String pid, byte[] message) {
+        CallbackContext ctx = processCallbacks.get(pid);
+        if (ctx == null) return false;
+        PluginResult result = new PluginResult(PluginResult.Status.OK, message);
+        result.setKeepCallback(true);
+        ctx.sendPluginResult(result);
+        return true;
+    }
+
+    private boolean sendPluginMessage(String pid, String message) {
         CallbackContext ctx = processCallbacks.get(pid);
-        if (ctx != null) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK, message);
-            result.setKeepCallback(true);
-            ctx.sendPluginResult(result);
+        if (ctx == null) return false;
+        sendMessage(ctx, message);
+        return true;
+    }
+
+    private static void sendMessage(CallbackContext ctx, String message) {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, message);
+        result.setKeepCallback(true);
+        ctx.sendPluginResult(result);
+    }
+
+    /**
+     * Makes callbackContext the output callback of a process, after sending
+     * it "attached:<offset>" and the scrollback from fromOffset on, in the
+     * delivery mode the process was started with: one binary message per
+     * run of stdout or stderr when chunked, otherwise one message per line.
+     * Status messages the process already sent follow. Holding the
+     * scrollback's lock while switching callbacks means output is neither
+     * lost nor sent twice.
+     */
+    private void attach(String pid, long fromOffset, CallbackContext callbackContext) {
+        Scrollback output = scrollback.get(pid);
+        if (output == null) {
+            output = finishedScrollback.get(pid);
+        }
+        if (output == null) {
+            callbackContext.error("No such process or no scrollback");
+            return;
+        }
+
+        synchronized (output) {
+            OutputRing.Replay replay = output.ring.replay(fromOffset);
+            sendMessage(callbackContext, "attached:" + replay.start);
+            for (OutputRing.Chunk chunk : replay.chunks) {
+                if (output.chunked) {
+                    byte[] message = new byte[chunk.data.length + 1];
+                    message[0] = chunk.tag;
+                    System.arraycopy(chunk.data, 0, message, 1, chunk.data.length);
+                    PluginResult result = new PluginResult(PluginResult.Status.OK, message);
+                    result.setKeepCallback(true);
+                    callbackContext.sendPluginResult(result);
+                    continue;
+                }
+
+                String prefix = chunk.tag == STDOUT_TAG ? "stdout:" : "stderr:";
+                String text = new String(chunk.data, StandardCharsets.UTF_8);
+                int start = 0;
+                int newline;
+                while ((newline = text.indexOf('\n', start)) != -1) {
+                    sendMessage(callbackContext, prefix + text.substring(start, newline));
+                    start = newline + 1;
+                }
+            }
+            for (String status : output.status) {
+                sendMessage(callbackContext, status);
+            }
+
+            if (processes.containsKey(pid)) {
+                processCallbacks.put(pid, callbackContext);
+                FlowControl flow = flows.get(pid);
+                if (flow != null) {
+                    flow.reset();
+                }
+            }
+        }
+    }
+
+    private static class Scrollback {
+        final OutputRing ring;
+        final boolean chunked;
+        final List<String> status = new ArrayList<>();
+
+        Scrollback(int capacity, boolean chunked) {
+            this.ring = new OutputRing(capacity);
+            this.chunked = chunked;
         }
     }
 
     private void cleanup(String pid) {
-        processes.remove(pid);
+        ProcessInfo info = processInfo.remove(pid);
+        if (info != null && info.wallTimer != null) {
+            info.wallTimer.cancel(false);
+        }
+        File ttyFile = ptyFiles.remove(pid);
+        if (ttyFile != null) {
+            ttyFile.delete();
+        }
+        FlowControl flow = flows.remove(pid);
+        if (flow != null) {
+            flow.close();
+        }
+        // cleanup runs again when the waiting thread sees a stopped process
+        // exit; only the first call frees the slot
+        if (processes.remove(pid) != null) {
+            processSlots.decrementAndGet();
+        }
         processInputs.remove(pid);
+        // attach() only registers callbacks of processes that are still
+        // known, checked under the same lock
+        Scrollback output = scrollback.remove(pid);
+        if (output != null) {
+            synchronized (output) {
+                finishedScrollback.put(pid, output);
+            }
+        }
         processCallbacks.remove(pid);
     }
 }
@@ -0,0 +1,362 @@
+package com.foxdebug.acode.rk.exec.terminal;
+
+import android.os.FileObserver;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filename index of a directory tree for AlpineDocumentProvider. It is built
+ * in the background on first use and kept up to date with one FileObserver
+ * per directory, so searches and listings don't walk the file system.
+ *
+ * Symlinks are indexed but not followed. That keeps links into the rest of
+ * the rootfs or the SD card out and can't loop; a link to a directory inside
+ * the root finds its contents indexed under their real path. Listing a
+ * symlinked directory is left to the caller.
+ *
+ * Only the first MAX_OBSERVED_DIRS directories are observed. The rest are
+ * indexed once and rescanned one directory at a time when their mtime
+ * changes, which catches files being added, removed or renamed.
+ */
+class FileIndex {
+
+    private static final String TAG = "FileIndex";
+
+    // inotify watches are a per-user budget (often 8192) shared with
+    // SDcard's FileWatcher and the rest of the app, so only a few are used
+    // here
+    private static final int MAX_OBSERVED_DIRS = 256;
+
+    private static final int MASK = FileObserver.CREATE
+            | FileObserver.DELETE
+            | FileObserver.MOVED_FROM
+            | FileObserver.MOVED_TO
+            | FileObserver.CLOSE_WRITE
+            | FileObserver.ATTRIB
+            | FileObserver.DELETE_SELF
+            | FileObserver.MOVE_SELF;
+
+    /**
+     * Metadata of one indexed file, as of the last scan or change event.
+     */
+    static class Entry {
+        final File file;
+        final String name;
+        final String lowerName;
+        final boolean isDirectory;
+        final boolean isLink;
+        final long size;
+        final long lastModified;
+        // Filled in by AlpineDocumentProvider the first time the entry is
+        // shown; a change to the file replaces the entry, which drops them.
+        volatile String mimeType;
+        volatile int flags = -1;
+
+        Entry(File file) {
+            this.file = file;
+            this.name = file.getName();
+            this.lowerName = name.toLowerCase(Locale.ROOT);
+            this.isDirectory = file.isDirectory();
+            this.isLink = isSymbolicLink(file);
+            this.size = isDirectory ? 0 : file.length();
+            this.lastModified = file.lastModified();
+        }
+    }
+
+    private final File root;
+    private final String rootPath;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Entry>> children = new ConcurrentHashMap<>();
+    private final Map<String, DirObserver> observers = new ConcurrentHashMap<>();
+    // Directories over the observer limit, with their mtime when last scanned
+    private final Map<String, Long> unobserved = new ConcurrentHashMap<>();
+    private volatile CountDownLatch built;
+
+    FileIndex(File root) {
+        this.root = root;
+        this.rootPath = root.getAbsolutePath();
+    }
+
+    /**
+     * Starts building the index unless it is built or being built. Returns
+     * immediately.
+     */
+    synchronized void ensureBuilding() {
+        if (built != null) return;
+
+        CountDownLatch latch = new CountDownLatch(1);
+        built = latch;
+        Thread thread = new Thread(() -> {
+            try {
+                scan(root);
+            } finally {
+                latch.countDown();
+            }
+        }, "AlpineDocumentIndex");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean awaitBuilt(long timeoutMs) {
+        ensureBuilding();
+        try {
+            return built.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    boolean isBuilt() {
+        CountDownLatch latch = built;
+        return latch != null && latch.getCount() == 0;
+    }
+
+    /**
+     * The indexed entry of file, or null if it isn't indexed or sits in an
+     * unobserved directory, where its size and mtime may be out of date.
+     */
+    Entry get(File file) {
+        File parent = file.getParentFile();
+        if (parent == null || !observers.containsKey(parent.getAbsolutePath())) return null;
+        return entries.get(file.getAbsolutePath());
+    }
+
+    /**
+     * Children of an indexed, observed directory, or null if the directory
+     * isn't covered by a complete and current index.
+     */
+    Collection<Entry> list(File dir) {
+        if (!isBuilt()) return null;
+        String path = dir.getAbsolutePath();
+        if (!observers.containsKey(path)) return null;
+        Map<String, Entry> list = children.get(path);
+        return list == null ? null : list.values();
+    }
+
+    /**
+     * Ranks file names containing query: exact name first, then prefix,
+     * then a match at a word boundary, then anywhere; shorter names first
+     * within a rank. Whatever is indexed when the time budget runs out is
+     * used, so a query never waits long for a cold index.
+     */
+    List<Entry> search(String query, int limit, long budgetMs) {
+        long deadline = System.currentTimeMillis() + budgetMs;
+        if (awaitBuilt(budgetMs)) refreshUnobserved(deadline);
+
+        String needle = query.toLowerCase(Locale.ROOT);
+        List<Entry> matches = new ArrayList<>();
+        int scanned = 0;
+        for (Entry entry : entries.values()) {
+            if ((++scanned & 1023) == 0 && System.currentTimeMillis() > deadline) break;
+            if (entry.file.equals(root) || !entry.lowerName.contains(needle)) continue;
+            matches.add(entry);
+        }
+
+        Collections.sort(matches, Comparator
+                .<Entry>comparingInt(entry -> rank(entry.lowerName, needle))
+                .thenComparingInt(entry -> entry.name.length())
+                .thenComparing(entry -> entry.lowerName));
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    private static int rank(String name, String needle) {
+        if (name.equals(needle)) return 0;
+        int index = name.indexOf(needle);
+        if (index == 0) return 1;
+        return Character.isLetterOrDigit(name.charAt(index - 1)) ? 3 : 2;
+    }
+
+    synchronized void clear() {
+        for (DirObserver observer : observers.values()) {
+            observer.stopWatching();
+        }
+        observers.clear();
+        unobserved.clear();
+        entries.clear();
+        children.clear();
+        built = null;
+    }
+
+    private void scan(File start) {
+        ArrayDeque<File> pending = new ArrayDeque<>();
+        pending.add(start);
+        put(start);
+
+        while (!pending.isEmpty()) {
+            File dir = pending.poll();
+            observe(dir);
+            File[] files = dir.listFiles();
+            if (files == null) continue;
+
+            for (File file : files) {
+                Entry entry = put(file);
+                if (entry.isDirectory && !entry.isLink) {
+                    pending.add(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rescans unobserved directories whose mtime changed since they were
+     * last scanned, until the deadline passes.
+     */
+    private void refreshUnobserved(long deadline) {
+        for (Map.Entry<String, Long> dir : unobserved.entrySet()) {
+            if (System.currentTimeMillis() > deadline) return;
+            File file = new File(dir.getKey());
+            long lastModified = file.lastModified();
+            if (lastModified == dir.getValue()) continue;
+
+            try {
+                if (lastModified == 0) {
+                    unobserved.remove(dir.getKey());
+                    remove(file);
+                } else {
+                    rescan(file, lastModified);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to refresh index for " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Brings the children of an unobserved directory up to date. New
+     * subdirectories are scanned in full.
+     */
+    private void rescan(File dir, long lastModified) {
+        String path = dir.getAbsolutePath();
+        unobserved.put(path, lastModified);
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        Map<String, Entry> previous = children.get(path);
+        Set<String> names = new HashSet<>();
+        for (File file : files) {
+            names.add(file.getName());
+            boolean known = previous != null && previous.containsKey(file.getName());
+            Entry entry = put(file);
+            if (!known && entry.isDirectory && !entry.isLink) scan(file);
+        }
+        if (previous == null) return;
+        for (Entry entry : new ArrayList<>(previous.values())) {
+            if (!names.contains(entry.name)) remove(entry.file);
+        }
+    }
+
+    private static boolean isSymbolicLink(File file) {
+        try {
+            // lstat rather than java.nio.file, which needs API 26
+            return OsConstants.S_ISLNK(Os.lstat(file.getAbsolutePath()).st_mode);
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    private Entry put(File file) {
+        Entry entry = new Entry(file);
+        String path = file.getAbsolutePath();
+        entries.put(path, entry);
+
+        File parent = file.getParentFile();
+        if (parent != null && !path.equals(rootPath)) {
+            children
+                    .computeIfAbsent(parent.getAbsolutePath(), key -> new ConcurrentHashMap<>())
+                    .put(entry.name, entry);
+        }
+        // A symlinked directory's contents aren't indexed, so it gets no
+        // children map and list() leaves it to the caller
+        if (entry.isDirectory && !entry.isLink) {
+            children.computeIfAbsent(path, key -> new ConcurrentHashMap<>());
+        }
+        return entry;
+    }
+
+    private void remove(File file) {
+        String path = file.getAbsolutePath();
+        Entry entry = entries.remove(path);
+        File parent = file.getParentFile();
+        if (parent != null) {
+            Map<String, Entry> siblings = children.get(parent.getAbsolutePath());
+            if (siblings != null) siblings.remove(file.getName());
+        }
+        if (entry == null || !entry.isDirectory) return;
+
+        DirObserver observer = observers.remove(path);
+        if (observer != null) observer.stopWatching();
+        unobserved.remove(path);
+        Map<String, Entry> removed = children.remove(path);
+        if (removed != null) {
+            for (Entry child : removed.values()) {
+                remove(child.file);
+            }
+        }
+    }
+
+    private void observe(File dir) {
+        if (observers.size() >= MAX_OBSERVED_DIRS) {
+            // Recorded before listing, so changes made while scanning show
+            // up as a newer mtime
+            unobserved.put(dir.getAbsolutePath(), dir.lastModified());
+            return;
+        }
+        DirObserver observer = new DirObserver(dir);
+        if (observers.putIfAbsent(dir.getAbsolutePath(), observer) == null) {
+            observer.startWatching();
+        }
+    }
+
+    private void onEvent(File dir, int event, String name) {
+        event &= FileObserver.ALL_EVENTS;
+        if (name == null || event == FileObserver.DELETE_SELF || event == FileObserver.MOVE_SELF) {
+            return;
+        }
+
+        File file = new File(dir, name);
+        try {
+            if (event == FileObserver.DELETE || event == FileObserver.MOVED_FROM || !file.exists()) {
+                remove(file);
+            } else if (event == FileObserver.CREATE || event == FileObserver.MOVED_TO) {
+                Entry entry = put(file);
+                if (entry.isDirectory && !entry.isLink) scan(file);
+            } else {
+                put(file);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to update index for " + file, e);
+        }
+    }
+
+    private class DirObserver extends FileObserver {
+        private final File dir;
+
+        @SuppressWarnings("deprecation")
+        DirObserver(File dir) {
+            super(dir.getAbsolutePath(), MASK);
+            this.dir = dir;
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            FileIndex.this.onEvent(dir, event, path);
+        }
+    }
+}
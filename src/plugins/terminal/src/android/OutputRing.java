@@ -0,0 +1,180 @@
+package com.foxdebug.acode.rk.exec.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The most recent output of a process, kept so a UI that reattaches can
+ * catch up. Output is stored as records of a stream tag, a length and the
+ * bytes, in a single byte array used as a ring; the oldest records are
+ * dropped to make room. The array grows on demand up to the capacity, so
+ * quiet processes stay small.
+ *
+ * Positions are byte offsets into everything the process ever printed on
+ * either stream, so a caller can ask for whatever came after the last byte
+ * it saw.
+ */
+final class OutputRing {
+
+    private static final int HEADER = 5;
+    private static final int INITIAL_SIZE = 4096;
+
+    private final int capacity;
+    private byte[] buffer = new byte[0];
+    private int head = 0;
+    private int used = 0;
+    // Output bytes ever appended, and how many of them are still stored
+    private long end = 0;
+    private long retained = 0;
+
+    OutputRing(int capacity) {
+        this.capacity = Math.max(capacity, HEADER + 1);
+    }
+
+    static class Chunk {
+        final byte tag;
+        final byte[] data;
+
+        Chunk(byte tag, byte[] data) {
+            this.tag = tag;
+            this.data = data;
+        }
+    }
+
+    static class Replay {
+        // Offset of the first replayed byte, later than requested when the
+        // output in between was already dropped
+        final long start;
+        final long end;
+        final List<Chunk> chunks;
+
+        Replay(long start, long end, List<Chunk> chunks) {
+            this.start = start;
+            this.end = end;
+            this.chunks = chunks;
+        }
+    }
+
+    synchronized void append(byte tag, byte[] data, int offset, int length) {
+        if (length <= 0) return;
+
+        int max = capacity - HEADER;
+        if (length > max) {
+            // Only the tail of an oversized write fits
+            end += length - max;
+            offset += length - max;
+            length = max;
+            head = 0;
+            used = 0;
+            retained = 0;
+        }
+
+        int needed = HEADER + length;
+        if (buffer.length - used < needed && buffer.length < capacity) {
+            grow(used + needed);
+        }
+        while (buffer.length - used < needed) {
+            dropFirst();
+        }
+
+        int position = head + used;
+        put(position++, tag);
+        put(position++, (byte) (length >>> 24));
+        put(position++, (byte) (length >>> 16));
+        put(position++, (byte) (length >>> 8));
+        put(position++, (byte) length);
+        copyIn(position, data, offset, length);
+
+        used += needed;
+        end += length;
+        retained += length;
+    }
+
+    /**
+     * Returns the stored output from offset on, with adjacent records of the
+     * same stream merged into one chunk.
+     */
+    synchronized Replay replay(long from) {
+        long offset = end - retained;
+        long start = Math.max(from, offset);
+        List<Chunk> chunks = new ArrayList<>();
+        ByteArrayOutputStream current = new ByteArrayOutputStream();
+        byte currentTag = 0;
+
+        int position = head;
+        int remaining = used;
+        while (remaining > 0) {
+            byte tag = get(position);
+            int length = (get(position + 1) & 0xff) << 24
+                    | (get(position + 2) & 0xff) << 16
+                    | (get(position + 3) & 0xff) << 8
+                    | (get(position + 4) & 0xff);
+
+            long skip = start - offset;
+            if (skip < length) {
+                if (tag != currentTag && current.size() > 0) {
+                    chunks.add(new Chunk(currentTag, current.toByteArray()));
+                    current.reset();
+                }
+                currentTag = tag;
+                int skipped = (int) Math.max(0, skip);
+                copyOut(position + HEADER + skipped, current, length - skipped);
+            }
+
+            offset += length;
+            position += HEADER + length;
+            remaining -= HEADER + length;
+        }
+        if (current.size() > 0) {
+            chunks.add(new Chunk(currentTag, current.toByteArray()));
+        }
+        return new Replay(start, end, chunks);
+    }
+
+    private void dropFirst() {
+        int length = (get(head + 1) & 0xff) << 24
+                | (get(head + 2) & 0xff) << 16
+                | (get(head + 3) & 0xff) << 8
+                | (get(head + 4) & 0xff);
+        head = (head + HEADER + length) % buffer.length;
+        used -= HEADER + length;
+        retained -= length;
+        if (used == 0) head = 0;
+    }
+
+    private void grow(int needed) {
+        int size = Math.max(INITIAL_SIZE, buffer.length);
+        while (size < needed) {
+            size *= 2;
+        }
+        byte[] grown = new byte[Math.min(size, capacity)];
+        for (int i = 0; i < used; i++) {
+            grown[i] = get(head + i);
+        }
+        buffer = grown;
+        head = 0;
+    }
+
+    private byte get(int position) {
+        return buffer[position % buffer.length];
+    }
+
+    private void put(int position, byte value) {
+        buffer[position % buffer.length] = value;
+    }
+
+    private void copyIn(int position, byte[] data, int offset, int length) {
+        int start = position % buffer.length;
+        int first = Math.min(length, buffer.length - start);
+        System.arraycopy(data, offset, buffer, start, first);
+        System.arraycopy(data, offset + first, buffer, 0, length - first);
+    }
+
+    private void copyOut(int position, ByteArrayOutputStream out, int length) {
+        int start = position % buffer.length;
+        int first = Math.min(length, buffer.length - start);
+        out.write(buffer, start, first);
+        out.write(buffer, 0, length - first);
+    }
+}
@@ -0,0 +1,151 @@
+package com.foxdebug.acode.rk.exec.terminal;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers around /proc for the processes started by Executor: finding the
+ * OS pid of a Process, walking its descendants (sh -c, proot and whatever
+ * runs inside) and summing their CPU time and memory. Only the app's own
+ * processes are visible in /proc, so scanning it is cheap.
+ */
+final class ProcessTree {
+
+    private static final long CLOCK_TICKS = Os.sysconf(OsConstants._SC_CLK_TCK);
+
+    private ProcessTree() {}
+
+    /**
+     * Returns the OS pid of a process, or -1 if it can't be determined.
+     * Android's Process implementation keeps it in a private field.
+     */
+    static int getPid(Process process) {
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns pid followed by all of its descendants, parents before children.
+     */
+    static List<Integer> collect(int pid) {
+        Map<Integer, List<Integer>> children = new HashMap<>();
+        File[] entries = new File("/proc").listFiles();
+        if (entries != null) {
+            for (File entry : entries) {
+                int child = parsePid(entry.getName());
+                if (child <= 0) continue;
+
+                String[] stat = readStat(child);
+                if (stat == null) continue;
+                int parent = Integer.parseInt(stat[1]);
+                List<Integer> siblings = children.get(parent);
+                if (siblings == null) {
+                    siblings = new ArrayList<>();
+                    children.put(parent, siblings);
+                }
+                siblings.add(child);
+            }
+        }
+
+        List<Integer> tree = new ArrayList<>();
+        tree.add(pid);
+        for (int i = 0; i < tree.size(); i++) {
+            List<Integer> next = children.get(tree.get(i));
+            if (next != null) tree.addAll(next);
+        }
+        return tree;
+    }
+
+    static Usage usage(List<Integer> pids) {
+        Usage usage = new Usage();
+        for (int pid : pids) {
+            String[] stat = readStat(pid);
+            if (stat == null) continue;
+
+            usage.processes++;
+            // Fields after the command name: state, ppid, ..., utime at
+            // index 11, stime at 12 and num_threads at 17
+            long ticks = Long.parseLong(stat[11]) + Long.parseLong(stat[12]);
+            usage.cpuTimeMs += ticks * 1000 / CLOCK_TICKS;
+            usage.threads += Integer.parseInt(stat[17]);
+            usage.rssBytes += readRss(pid);
+        }
+        return usage;
+    }
+
+    /**
+     * Sends signal to every pid, ignoring processes that already exited.
+     */
+    static void signal(List<Integer> pids, int signal) {
+        for (int pid : pids) {
+            try {
+                Os.kill(pid, signal);
+            } catch (ErrnoException ignored) {
+            }
+        }
+    }
+
+    static class Usage {
+        int processes = 0;
+        int threads = 0;
+        long cpuTimeMs = 0;
+        long rssBytes = 0;
+    }
+
+    private static int parsePid(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) return -1;
+        }
+        return name.isEmpty() ? -1 : Integer.parseInt(name);
+    }
+
+    /**
+     * Reads /proc/pid/stat split into the fields after "(comm)", which may
+     * itself contain spaces.
+     */
+    private static String[] readStat(int pid) {
+        String line = readFirstLine(new File("/proc/" + pid + "/stat"));
+        if (line == null) return null;
+
+        int end = line.lastIndexOf(')');
+        if (end == -1 || end + 2 > line.length()) return null;
+        return line.substring(end + 2).split(" ");
+    }
+
+    private static long readRss(int pid) {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/" + pid + "/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    String kb = line.substring(6).trim().split("\\s+")[0];
+                    return Long.parseLong(kb) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return 0;
+    }
+
+    private static String readFirstLine(File file) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            return reader.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
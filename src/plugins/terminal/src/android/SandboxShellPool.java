@@ -0,0 +1,283 @@
+package com.foxdebug.acode.rk.exec.terminal;
+
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a few Alpine sandbox shells running so short commands don't pay for
+ * starting proot and init-sandbox.sh every time.
+ *
+ * Each shell reads commands from stdin. A command runs in its own sh -c, so
+ * it can't change the shell's directory or environment, and is followed by
+ * a marker with a per-command token on stdout (carrying the exit code) and
+ * on stderr. Everything before the markers is the command's output. Shells
+ * that time out or break are thrown away and replaced.
+ */
+class SandboxShellPool {
+
+    private static final String TAG = "SandboxShellPool";
+    private static final byte RECORD_SEPARATOR = 036;
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    interface Launcher {
+        Process start(String cmd) throws IOException;
+    }
+
+    private final ExecutorService ioPool;
+    private final Launcher launcher;
+    private final BlockingQueue<Shell> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger starting = new AtomicInteger();
+    private volatile int size;
+    private volatile boolean closed = false;
+
+    SandboxShellPool(int size, ExecutorService ioPool, Launcher launcher) {
+        this.size = size;
+        this.ioPool = ioPool;
+        this.launcher = launcher;
+    }
+
+    void setSize(int size) {
+        this.size = size;
+        while (idle.size() > size) {
+            Shell shell = idle.poll();
+            if (shell != null) shell.destroy();
+        }
+        fill();
+    }
+
+    /**
+     * Starts shells in the background until the pool is full.
+     */
+    void fill() {
+        while (!closed && idle.size() + starting.get() < size) {
+            starting.incrementAndGet();
+            ioPool.execute(() -> {
+                try {
+                    Shell shell = new Shell(launcher.start("source $PREFIX/init-sandbox.sh sh"));
+                    // Wait for the sandbox to come up and drop whatever
+                    // init-alpine.sh printed
+                    Executor.ExecResult ready = shell.run("true", 0, 0);
+                    if (ready.exitCode != 0 || closed) {
+                        shell.destroy();
+                    } else {
+                        idle.offer(shell);
+                    }
+                } catch (Exception e) {
+                    Log.w(TAG, "Failed to start sandbox shell", e);
+                } finally {
+                    starting.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs cmd on a warm shell. Returns null when none is available, in
+     * which case the caller should start a process as usual.
+     */
+    Executor.ExecResult run(String cmd, long timeout, int maxOutput) throws Exception {
+        Shell shell = idle.poll();
+        while (shell != null && !shell.isAlive()) {
+            shell.destroy();
+            shell = idle.poll();
+        }
+        fill();
+
+        if (shell == null) return null;
+
+        try {
+            Executor.ExecResult result = shell.run(cmd, timeout, maxOutput);
+            if (result.timedOut || closed) {
+                shell.destroy();
+            } else {
+                idle.offer(shell);
+            }
+            return result;
+        } catch (Exception e) {
+            shell.destroy();
+            throw e;
+        } finally {
+            fill();
+        }
+    }
+
+    void close() {
+        closed = true;
+        Shell shell;
+        while ((shell = idle.poll()) != null) {
+            shell.destroy();
+        }
+    }
+
+    private class Shell {
+        private final Process process;
+        private final OutputStream stdin;
+        private final InputStream stdout;
+        private final InputStream stderr;
+
+        Shell(Process process) {
+            this.process = process;
+            this.stdin = process.getOutputStream();
+            this.stdout = process.getInputStream();
+            this.stderr = process.getErrorStream();
+        }
+
+        boolean isAlive() {
+            return process.isAlive();
+        }
+
+        void destroy() {
+            process.destroy();
+        }
+
+        Executor.ExecResult run(String cmd, long timeout, int maxOutput) throws Exception {
+            String token = UUID.randomUUID().toString().replace("-", "");
+            String line = "sh -c " + shellQuote(cmd) + " </dev/null"
+                    + "; printf '\\036%s:%d\\n' " + token + " $?"
+                    + "; printf '\\036%s\\n' " + token + " >&2\n";
+
+            MarkerCapture out = new MarkerCapture(stdout, marker(token + ":"), maxOutput);
+            MarkerCapture err = new MarkerCapture(stderr, marker(token + "\n"), maxOutput);
+            Future<?> errDone = ioPool.submit(err);
+
+            stdin.write(line.getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+
+            Future<?> outDone = ioPool.submit(out);
+            boolean timedOut = false;
+            try {
+                if (timeout > 0) {
+                    outDone.get(timeout, TimeUnit.MILLISECONDS);
+                } else {
+                    outDone.get();
+                }
+                errDone.get();
+            } catch (TimeoutException e) {
+                timedOut = true;
+                process.destroy();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+
+            Executor.ExecResult result = new Executor.ExecResult();
+            result.stdout = out.toString();
+            result.stderr = err.toString();
+            result.exitCode = timedOut ? -1 : out.readExitCode();
+            result.timedOut = timedOut;
+            result.truncated = out.truncated || err.truncated;
+            return result;
+        }
+    }
+
+    private static byte[] marker(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] marker = new byte[bytes.length + 1];
+        marker[0] = RECORD_SEPARATOR;
+        System.arraycopy(bytes, 0, marker, 1, bytes.length);
+        return marker;
+    }
+
+    private static String shellQuote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Copies a stream into a capped buffer until the marker shows up. The
+     * marker starts with a byte that never occurs later in it, so a failed
+     * partial match only has to be flushed, not rescanned.
+     */
+    private static class MarkerCapture implements Runnable {
+        private final InputStream in;
+        private final byte[] marker;
+        private final int limit;
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // Bytes read past the marker, the start of the exit code on stdout
+        private byte[] rest = new byte[0];
+        private int restOffset = 0;
+        private int restLength = 0;
+        volatile boolean truncated = false;
+
+        MarkerCapture(InputStream in, byte[] marker, int limit) {
+            this.in = in;
+            this.marker = marker;
+            this.limit = limit;
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int matched = 0;
+            try {
+                while (true) {
+                    int read = in.read(buffer);
+                    if (read == -1) throw new EOFException("Sandbox shell exited");
+
+                    for (int i = 0; i < read; i++) {
+                        byte b = buffer[i];
+                        if (b == marker[matched]) {
+                            if (++matched == marker.length) {
+                                rest = buffer;
+                                restOffset = i + 1;
+                                restLength = read;
+                                return;
+                            }
+                            continue;
+                        }
+                        if (matched > 0) {
+                            append(marker, 0, matched);
+                            matched = b == marker[0] ? 1 : 0;
+                            if (matched == 1) continue;
+                        }
+                        append(buffer, i, 1);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void append(byte[] bytes, int offset, int length) {
+            int room = limit - output.size();
+            if (length > room) truncated = true;
+            if (room > 0) output.write(bytes, offset, Math.min(length, room));
+        }
+
+        /**
+         * Reads the decimal exit code following the stdout marker.
+         */
+        int readExitCode() throws IOException {
+            int code = 0;
+            int offset = restOffset;
+            while (true) {
+                int b;
+                if (offset < restLength) {
+                    b = rest[offset++];
+                } else {
+                    b = in.read();
+                }
+                if (b == -1 || b == '\n') return code;
+                code = code * 10 + (b - '0');
+            }
+        }
+
+        @Override
+        public String toString() {
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.foxdebug.acode.rk.exec.terminal;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.os.CancellationSignal;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Scaled-down image thumbnails for AlpineDocumentProvider, kept as files in
+ * the cache directory so they can be handed out as plain seekable file
+ * descriptors. The cache is keyed by path, size, mtime and requested size,
+ * so a changed image gets a new thumbnail, and the least recently used
+ * thumbnails are deleted once the total size passes MAX_BYTES.
+ */
+class ThumbnailCache {
+
+    private static final long MAX_BYTES = 16 * 1024 * 1024;
+    private static final int MIN_SIZE = 64;
+    private static final int MAX_SIZE = 1024;
+    private static final int JPEG_QUALITY = 85;
+
+    private final File dir;
+    private final LinkedHashMap<String, File> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    ThumbnailCache(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+
+        // Pick up thumbnails from earlier runs, oldest first
+        File[] existing = dir.listFiles();
+        if (existing == null) return;
+        Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+        for (File file : existing) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            files.put(file.getName(), file);
+            totalBytes += file.length();
+        }
+        trim();
+    }
+
+    /**
+     * Returns a thumbnail of image no larger than about sizeHint, or null if
+     * the image can't be decoded.
+     */
+    File get(File image, Point sizeHint, CancellationSignal signal) throws IOException {
+        int size = targetSize(sizeHint);
+        String key = Integer.toHexString(image.getAbsolutePath().hashCode())
+                + "-" + Long.toHexString(image.lastModified())
+                + "-" + Long.toHexString(image.length())
+                + "-" + size;
+
+        synchronized (this) {
+            File cached = files.get(key);
+            if (cached != null && cached.exists()) return cached;
+        }
+
+        if (signal != null) signal.throwIfCanceled();
+        Bitmap bitmap = decode(image, size);
+        if (bitmap == null) return null;
+
+        File file = new File(dir, key);
+        // Concurrent requests for the same image each write their own file;
+        // the last rename wins and the results are identical
+        File tmp = new File(dir, key + "-" + UUID.randomUUID() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            if (bitmap.hasAlpha()) {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            } else {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            bitmap.recycle();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to save thumbnail of " + image);
+        }
+
+        synchronized (this) {
+            File previous = files.put(key, file);
+            if (previous == null) totalBytes += file.length();
+            trim();
+        }
+        return file;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, File>> iterator = files.entrySet().iterator();
+        while (totalBytes > MAX_BYTES && iterator.hasNext()) {
+            File file = iterator.next().getValue();
+            totalBytes -= file.length();
+            file.delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Rounds the larger side of the hint up to a power of two, so nearby
+     * sizes share a thumbnail.
+     */
+    private static int targetSize(Point sizeHint) {
+        int wanted = sizeHint == null ? MIN_SIZE : Math.max(sizeHint.x, sizeHint.y);
+        int size = MIN_SIZE;
+        while (size < wanted && size < MAX_SIZE) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static Bitmap decode(File image, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(image.getAbsolutePath(), options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) return null;
+
+        // Subsample while both sides stay at least size, then scale the rest
+        int sample = 1;
+        while (width / (sample * 2) >= size && height / (sample * 2) >= size) {
+            sample *= 2;
+        }
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        Bitmap bitmap = BitmapFactory.decodeFile(image.getAbsolutePath(), options);
+        if (bitmap == null) return null;
+
+        float scale = (float) size / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (scale >= 1) return bitmap;
+
+        Bitmap scaled = Bitmap.createScaledBitmap(
+                bitmap,
+                Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                true);
+        if (scaled != bitmap) bitmap.recycle();
+        return scaled;
+    }
+}
@@ -8,16 +8,126 @@
 
 const exec = require('cordova/exec');
 
+// Raw writes waiting to be sent, per process
+const pendingWrites = {};
+
+// Output bytes received per process, the offset to pass to Executor.attach
+const offsets = {};
+const encoder = new TextEncoder();
+
+/**
+ * Builds the message handler shared by `start` and `attach`. Messages that
+ * aren't output or status (the process UUID, "attached:<offset>") go to
+ * `onControl`.
+ */
+function outputHandler(onData, options, onControl) {
+  const decoders = {};
+  let uuid = null;
+  let unacknowledged = 0;
+  let ackTimer = null;
+
+  // Output is acknowledged once handled, in batches. The process is paused
+  // natively while too much output is unacknowledged.
+  const ack = () => {
+    clearTimeout(ackTimer);
+    ackTimer = null;
+    if (!uuid || !unacknowledged) return;
+    exec(null, null, "Executor", "ack", [uuid, unacknowledged]);
+    unacknowledged = 0;
+  };
+  const handled = (length, bytes) => {
+    if (uuid) offsets[uuid] = (offsets[uuid] || 0) + bytes;
+    unacknowledged += length;
+    if (unacknowledged >= 64 * 1024) ack();
+    else if (!ackTimer) ackTimer = setTimeout(ack, 50);
+  };
+
+  return (message) => {
+    // Chunked output: first byte tells the stream, the rest is raw output
+    if (message instanceof ArrayBuffer) {
+      handled(message.byteLength, message.byteLength - 1);
+      const bytes = new Uint8Array(message);
+      const type = bytes[0] === 1 ? "stdout" : "stderr";
+      const data = bytes.subarray(1);
+      if (options.binary) return onData(type, data);
+
+      // Streaming decode keeps multi-byte characters split across chunks
+      decoders[type] = decoders[type] || new TextDecoder();
+      return onData(type, decoders[type].decode(data, { stream: true }));
+    }
+
+    // Stream stdout, stderr, or exit notifications
+    if (message.startsWith("stdout:") || message.startsWith("stderr:")) {
+      const line = message.slice(7);
+      handled(message.length, encoder.encode(line).length + 1);
+      return onData(message.slice(0, 6), line);
+    }
+    if (message.startsWith("killed:")) {
+      return onData("killed", message.slice(7));
+    }
+    if (message.startsWith("exit:")) {
+      clearTimeout(ackTimer);
+      return onData("exit", message.slice(5));
+    }
+
+    uuid = onControl(message) || uuid;
+  };
+}
+
+function flushWrites(uuid) {
+  const queue = pendingWrites[uuid] || [];
+  delete pendingWrites[uuid];
+
+  queue.forEach(({ binary, charset, parts, callbacks }) => {
+    let input;
+    if (binary) {
+      const length = parts.reduce((total, part) => total + part.length, 0);
+      const bytes = new Uint8Array(length);
+      let offset = 0;
+      parts.forEach((part) => {
+        bytes.set(part, offset);
+        offset += part.length;
+      });
+      input = bytes.buffer;
+    } else {
+      input = parts.join("");
+    }
+
+    exec(
+      (res) => callbacks.forEach(({ resolve }) => resolve(res)),
+      (err) => callbacks.forEach(({ reject }) => reject(err)),
+      "Executor",
+      "write",
+      [uuid, input, { raw: true, binary, charset }]
+    );
+  });
+}
+
 const Executor = {
   /**
    * Starts a shell process and enables real-time streaming of stdout, stderr, and exit status.
    *
    * @param {string} command - The shell command to run (e.g., `"sh"`, `"ls -al"`).
-   * @param {(type: 'stdout' | 'stderr' | 'exit', data: string) => void} onData - Callback that receives real-time output:
+   * @param {(type: 'stdout' | 'stderr' | 'killed' | 'exit', data: string) => void} onData - Callback that receives real-time output:
    *   - `"stdout"`: Standard output line.
    *   - `"stderr"`: Standard error line.
+   *   - `"killed"`: Name of the limit that stopped the process.
    *   - `"exit"`: Exit code of the process.
    * @param {boolean} alpine - Whether to run the command inside the Alpine sandbox environment (`true`) or on Android directly (`false`).
+   * @param {object} [options]
+   * @param {boolean} [options.chunked=false] - Deliver output in chunks of raw bytes (flushed every 32KB or 16ms) instead of one message per line.
+   *   Chunks keep partial lines and ANSI sequences intact, `data` is a string decoded as a stream of UTF-8.
+   * @param {boolean} [options.binary=false] - With `chunked`, pass stdout/stderr as `Uint8Array` instead of decoding them.
+   * @param {boolean} [options.pty=false] - Run the command on a pseudo terminal (via `script`, available in the Alpine sandbox),
+   *   so interactive programs see a tty, stream output promptly and get a window size. stderr is merged into stdout.
+   * @param {number} [options.rows=24] - Initial PTY height, see {@link Executor.resize}.
+   * @param {number} [options.cols=80] - Initial PTY width.
+   * @param {number} [options.maxWallTime] - Stop the process (and its children) after this many milliseconds.
+   * @param {number} [options.maxOutput] - Stop the process once it printed more than this many bytes.
+   *   When a limit stops the process, `onData` receives `"killed"` with the limit's name before `"exit"`.
+   * @param {boolean} [options.flowControl=true] - Pause the process (by not draining its output) while more than 1MB of output
+   *   is waiting to be handled by `onData`.
+   * @param {number} [options.scrollback=262144] - Bytes of recent output kept natively for {@link Executor.attach}, `0` keeps none.
    * @returns {Promise<string>} Resolves with a unique process ID (UUID) used for future references like `write()` or `stop()`.
    *
    * @example
@@ -34,44 +144,138 @@ const Executor = {
     this.start(command,onData,false)
   },
 
-  start(command, onData, alpine) {
+  start(command, onData, alpine, options = {}) {
     return new Promise((resolve, reject) => {
       exec(
-        (message) => {
-          // Stream stdout, stderr, or exit notifications
-          if (message.startsWith("stdout:")) return onData("stdout", message.slice(7));
-          if (message.startsWith("stderr:")) return onData("stderr", message.slice(7));
-          if (message.startsWith("exit:")) return onData("exit", message.slice(5));
-
+        outputHandler(onData, options, (message) => {
           // First message is always the process UUID
+          offsets[message] = 0;
           resolve(message);
-        },
+          return message;
+        }),
         reject,
         "Executor",
         "start",
-        [command, String(alpine)]
+        [command, String(alpine), { flowControl: true, ...options }]
       );
     });
   },
 
+  /**
+   * Takes over the output of a process started with {@link Executor.start}, e.g. after the page was reloaded.
+   * Output the process printed since `fromOffset` is replayed from its native scrollback first (the last 256KB by
+   * default, see `options.scrollback` of `start`), followed by `"killed"`/`"exit"` if it already happened.
+   * Processes keep running and recording output while no page is attached.
+   *
+   * @param {string} uuid - The process ID returned by {@link Executor.start}.
+   * @param {(type: 'stdout' | 'stderr' | 'killed' | 'exit', data: string) => void} onData - Same as for {@link Executor.start}.
+   * @param {number} [fromOffset=0] - Output offset to continue from, as returned by {@link Executor.getOffset} before
+   *   the page went away. `0` replays all the scrollback that is left.
+   * @param {object} [options]
+   * @param {boolean} [options.binary=false] - Same as for {@link Executor.start}.
+   * @returns {Promise<number>} Resolves with the offset the replay starts at. It is later than `fromOffset` when
+   *   the output in between no longer fits in the scrollback.
+   *
+   * @example
+   * const uuid = sessionStorage.getItem('shell');
+   * const offset = Number(sessionStorage.getItem('shellOffset')) || 0;
+   * Executor.attach(uuid, (type, data) => term.write(data), offset);
+   */
+  attach(uuid, onData, fromOffset = 0, options = {}) {
+    return new Promise((resolve, reject) => {
+      exec(
+        outputHandler(onData, options, (message) => {
+          const start = Number(message.slice("attached:".length));
+          offsets[uuid] = start;
+          resolve(start);
+          return uuid;
+        }),
+        reject,
+        "Executor",
+        "attach",
+        [uuid, fromOffset]
+      );
+    });
+  },
+
+  /**
+   * Number of output bytes of a process received so far on this page, to be kept (e.g. in `sessionStorage`) and
+   * passed to {@link Executor.attach} after a reload.
+   *
+   * @param {string} uuid - The process ID returned by {@link Executor.start}.
+   * @returns {number}
+   */
+  getOffset(uuid) {
+    return offsets[uuid] || 0;
+  },
+
   /**
    * Sends input to a running process's stdin.
    *
    * @param {string} uuid - The process ID returned by {@link Executor.start}.
-   * @param {string} input - Input string to send (e.g., shell commands).
+   * @param {string|ArrayBuffer|Uint8Array} input - Input to send (e.g., shell commands). Binary input is written as is.
+   * @param {object} [options]
+   * @param {boolean} [options.raw=false] - Don't append a newline, for keystrokes, control characters and partial lines.
+   *   Writes issued in quick succession are coalesced into a single call, in order.
+   * @param {string} [options.charset="UTF-8"] - Encoding for string input.
    * @returns {Promise<string>} Resolves once the input is written.
    *
    * @example
    * Executor.write(uuid, 'ls /data');
+   * Executor.write(uuid, '\x03', { raw: true }); // Ctrl+C
    */
-  write(uuid, input) {
+  write(uuid, input, options = {}) {
+    const binary = input instanceof ArrayBuffer || ArrayBuffer.isView(input);
+    if (binary) {
+      input = input instanceof ArrayBuffer ? new Uint8Array(input) : new Uint8Array(input.buffer, input.byteOffset, input.byteLength);
+    }
+
+    // Lines go through the same queue as raw writes, so stdin sees every
+    // write in call order
+    if (!binary && !options.raw) {
+      input = `${input}\n`;
+    }
+
     return new Promise((resolve, reject) => {
-      exec(resolve, reject, "Executor", "write", [uuid, input]);
+      const charset = options.charset || "UTF-8";
+      const queue = (pendingWrites[uuid] = pendingWrites[uuid] || []);
+      const last = queue[queue.length - 1];
+
+      // Merge with the previous write unless the kind of input changes
+      if (last && last.binary === binary && last.charset === charset) {
+        last.parts.push(input);
+        last.callbacks.push({ resolve, reject });
+      } else {
+        queue.push({ binary, charset, parts: [input], callbacks: [{ resolve, reject }] });
+      }
+
+      if (queue.length === 1 && queue[0].parts.length === 1) {
+        setTimeout(() => flushWrites(uuid), 0);
+      }
     });
   },
 
   /**
-   * Terminates a running process.
+   * Changes the window size of a process started with `pty: true`. The program receives SIGWINCH.
+   *
+   * @param {string} uuid - The process ID returned by {@link Executor.start}.
+   * @param {number} cols - Width in columns.
+   * @param {number} rows - Height in rows.
+   * @returns {Promise<string>} Resolves once the size is applied.
+   *
+   * @example
+   * Executor.start('top', onData, true, { pty: true, chunked: true }).then(uuid => {
+   *   Executor.resize(uuid, 120, 40);
+   * });
+   */
+  resize(uuid, cols, rows) {
+    return new Promise((resolve, reject) => {
+      exec(resolve, reject, "Executor", "resize", [uuid, cols, rows]);
+    });
+  },
+
+  /**
+   * Terminates a running process and every process it started.
    *
    * @param {string} uuid - The process ID returned by {@link Executor.start}.
    * @returns {Promise<string>} Resolves when the process has been stopped.
@@ -85,6 +289,50 @@ const Executor = {
     });
   },
 
+  /**
+   * Lists the processes started with {@link Executor.start} that are still tracked, with resource usage summed
+   * over each process and everything it started.
+   *
+   * @returns {Promise<Array<{id: string, pid: number, command: string, pty: boolean, alive: boolean, startedAt: number,
+   *   wallTimeMs: number, outputBytes: number, processes: number, threads: number, cpuTimeMs: number, rssBytes: number}>>}
+   *
+   * @example
+   * const running = await Executor.listProcesses();
+   * running.sort((a, b) => b.cpuTimeMs - a.cpuTimeMs);
+   */
+  listProcesses() {
+    return new Promise((resolve, reject) => {
+      exec(resolve, reject, "Executor", "listProcesses", []);
+    });
+  },
+
+  /**
+   * Resource usage of one process, same fields as {@link Executor.listProcesses}.
+   *
+   * @param {string} uuid - The process ID returned by {@link Executor.start}.
+   * @returns {Promise<object>}
+   */
+  stats(uuid) {
+    return new Promise((resolve, reject) => {
+      exec(resolve, reject, "Executor", "stats", [uuid]);
+    });
+  },
+
+  /**
+   * Sets limits for processes started afterwards. `0` means unlimited.
+   *
+   * @param {object} limits
+   * @param {number} [limits.maxProcesses] - Maximum number of processes running at once, `start` fails beyond it.
+   * @param {number} [limits.maxWallTime] - Default `maxWallTime` for {@link Executor.start}.
+   * @param {number} [limits.maxOutput] - Default `maxOutput` for {@link Executor.start}.
+   * @returns {Promise<void>}
+   */
+  setLimits(limits) {
+    return new Promise((resolve, reject) => {
+      exec(resolve, reject, "Executor", "setLimits", [limits]);
+    });
+  },
+
   /**
    * Checks if a process is still running.
    *
@@ -108,6 +356,11 @@ const Executor = {
    *
    * @param {string} command - The shell command to execute.
    * @param {boolean} alpine - Whether to run the command in the Alpine sandbox (`true`) or Android environment (`false`).
+   * @param {object} [options]
+   * @param {number} [options.timeout] - Kill the command after this many milliseconds.
+   * @param {number} [options.maxOutput=4194304] - Bytes of stdout and of stderr to keep, the rest is discarded.
+   * @param {boolean} [options.pooled=true] - With `alpine`, run on an already started sandbox shell when one is idle.
+   *   The command runs in its own `sh -c`, so it can't change the shell's directory or environment.
    * @returns {Promise<string>} Resolves with standard output on success, rejects with an error or standard error on failure.
    *
    * @example
@@ -119,9 +372,81 @@ const Executor = {
     this.execute(command,false)
   }
   ,
-  execute(command, alpine) {
+  execute(command, alpine, options = {}) {
+    return new Promise((resolve, reject) => {
+      exec(resolve, reject, "Executor", "exec", [command, String(alpine), options]);
+    });
+  },
+
+  /**
+   * Executes a shell command once and resolves with everything it produced, whatever the exit code.
+   *
+   * @param {string} command - The shell command to execute.
+   * @param {boolean} alpine - Whether to run the command in the Alpine sandbox (`true`) or Android environment (`false`).
+   * @param {object} [options] - Same as {@link Executor.execute}.
+   * @returns {Promise<{stdout: string, stderr: string, exitCode: number, timedOut: boolean, truncated: boolean}>}
+   *
+   * @example
+   * const { stdout, stderr, exitCode } = await Executor.run('git status --short', true, { timeout: 10000 });
+   */
+  run(command, alpine, options = {}) {
+    return new Promise((resolve, reject) => {
+      exec(resolve, reject, "Executor", "exec", [command, String(alpine), { ...options, structured: true }]);
+    });
+  },
+
+  /**
+   * Measures how many lines per second reach JS from a noisy local process,
+   * once with line-by-line delivery and once with chunked delivery.
+   *
+   * @param {number} [lines=100000] - Number of lines the process prints.
+   * @returns {Promise<{lines: object, chunked: object}>} For each mode: lines received, messages, milliseconds and lines per second.
+   *
+   * @example
+   * Executor.benchmark(50000).then(console.table);
+   */
+  async benchmark(lines = 100000) {
+    const run = (chunked) => new Promise((resolve, reject) => {
+      const start = Date.now();
+      let received = 0;
+      let messages = 0;
+
+      this.start(`yes "benchmark output line" | head -n ${lines}`, (type, data) => {
+        if (type === "exit") {
+          const ms = Date.now() - start;
+          return resolve({
+            lines: received,
+            messages,
+            ms,
+            linesPerSec: Math.round((received * 1000) / Math.max(ms, 1)),
+          });
+        }
+
+        messages++;
+        if (type !== "stdout") return;
+        if (!chunked) return received++;
+        for (let i = 0; i < data.length; i++) {
+          if (data.charCodeAt(i) === 10) received++;
+        }
+      }, false, { chunked }).catch(reject);
+    });
+
+    return {
+      lines: await run(false),
+      chunked: await run(true),
+    };
+  },
+
+  /**
+   * Sets how many warm Alpine sandbox shells are kept for {@link Executor.execute}. Shells are started in the
+   * background right away, so calling this early (e.g. once the sandbox is installed) hides the startup cost.
+   *
+   * @param {number} size - Number of shells, `0` stops them all.
+   * @returns {Promise<void>}
+   */
+  setShellPoolSize(size) {
     return new Promise((resolve, reject) => {
-      exec(resolve, reject, "Executor", "exec", [command, String(alpine)]);
+      exec(resolve, reject, "Executor", "shellPool", [size]);
     });
   },
 